@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.benchmark;
+
+import com.uhbnjiokm.superuser.Shell;
+import com.uhbnjiokm.superuser.ShellUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and throughput of jobs running in a single {@code /bin/sh} shell.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class ShellBenchmark {
+
+    private static final int BATCH = 100;
+
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    @Param({"false", "true"})
+    public boolean framed;
+
+    private Shell shell;
+
+    @Setup
+    public void setup() {
+        int flags = Shell.FLAG_NON_ROOT_SHELL;
+        if (pipelined)
+            flags |= Shell.FLAG_PIPELINE_JOBS;
+        if (framed)
+            flags |= Shell.FLAG_FRAMED_OUTPUT;
+        Shell.Config.setFlags(flags);
+        // Measure the shell, not the hop to the main thread
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        shell = Shell.newInstance("sh");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        shell.close();
+    }
+
+    /**
+     * Round-trip latency of the smallest possible command.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String fastCmd() {
+        return ShellUtils.fastCmd(shell, "echo");
+    }
+
+    /**
+     * Jobs per second when many jobs are submitted at once.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void submit() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; ++i)
+            shell.newJob().add("true").submit(r -> latch.countDown());
+        latch.await();
+    }
+
+    /**
+     * Time to collect a large output, dominated by reading and storing lines.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int largeOutput() {
+        List<String> out = new ArrayList<>();
+        shell.newJob().add("seq 1 100000").to(out).exec();
+        return out.size();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of reading the output of a single job, without any shell involved.
+ * <p>
+ * {@code bufferedReader} is the line reading approach used before {@link LineScanner},
+ * kept as a baseline.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class GobblerBenchmark {
+
+    private static final String TOKEN = "OPn2Kpu8u4IZUspW8I1XhoOzLqKtAjkA";
+
+    @Param({"100000"})
+    public int lines;
+
+    @Param({"8", "80"})
+    public int lineLength;
+
+    private byte[] data;
+    private byte[] end;
+
+    @Setup
+    public void setup() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] line = new byte[lineLength + 1];
+        for (int i = 0; i < lineLength; ++i)
+            line[i] = (byte) ('a' + i % 26);
+        line[lineLength] = '\n';
+        for (int i = 0; i < lines; ++i)
+            buf.write(line);
+        buf.write((TOKEN + "\n0\n").getBytes("UTF-8"));
+        data = buf.toByteArray();
+        end = TOKEN.getBytes("UTF-8");
+    }
+
+    private int gobble(List<String> out) throws IOException {
+        LineScanner in = new LineScanner(new ByteArrayInputStream(data));
+        new StreamGobbler(in, true).gobble(out, null, new ResultImpl(), end);
+        return out.size();
+    }
+
+    @Benchmark
+    public int arena() throws IOException {
+        return gobble(new LineList());
+    }
+
+    @Benchmark
+    public int arrayList() throws IOException {
+        return gobble(new ArrayList<>());
+    }
+
+    @Benchmark
+    public int discard() throws IOException {
+        LineScanner in = new LineScanner(new ByteArrayInputStream(data));
+        return new StreamGobbler(in, true).gobble(null, null, new ResultImpl(), end);
+    }
+
+    @Benchmark
+    public int bufferedReader() throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(data), "UTF-8"));
+        List<String> out = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.endsWith(TOKEN)) {
+                in.readLine();
+                break;
+            }
+            out.add(line);
+        }
+        return out.size();
+    }
+}
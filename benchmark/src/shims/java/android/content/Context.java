@@ -0,0 +1,17 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM shim.
+ */
+public abstract class Context {
+
+    public File getCacheDir() {
+        return null;
+    }
+
+    public File getFilesDir() {
+        return null;
+    }
+}
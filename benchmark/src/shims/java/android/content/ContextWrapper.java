@@ -0,0 +1,13 @@
+package android.content;
+
+/**
+ * JVM shim.
+ */
+public class ContextWrapper extends Context {
+
+    Context mBase;
+
+    public ContextWrapper(Context base) {
+        mBase = base;
+    }
+}
@@ -0,0 +1,30 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM shim: all handlers post to a single daemon thread acting as the main thread.
+ */
+public class Handler {
+
+    private static final ScheduledExecutorService MAIN = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "main");
+        t.setDaemon(true);
+        Looper.mainThread = t;
+        return t;
+    });
+
+    public Handler(Looper looper) {}
+
+    public final boolean post(Runnable r) {
+        MAIN.execute(r);
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        MAIN.schedule(r, delayMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+}
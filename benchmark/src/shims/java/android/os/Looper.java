@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * JVM shim: the main looper is a single daemon thread owned by {@link Handler}.
+ */
+public final class Looper {
+
+    static final Looper MAIN = new Looper();
+    static volatile Thread mainThread;
+
+    private Looper() {}
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return Thread.currentThread() == mainThread ? MAIN : null;
+    }
+}
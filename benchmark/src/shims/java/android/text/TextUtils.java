@@ -0,0 +1,43 @@
+package android.text;
+
+/**
+ * JVM shim.
+ */
+public final class TextUtils {
+
+    private TextUtils() {}
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.length() != b.length())
+            return false;
+        return a.toString().contentEquals(b);
+    }
+
+    public static String join(CharSequence delimiter, Object[] tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens.length; ++i) {
+            if (i > 0)
+                sb.append(delimiter);
+            sb.append(tokens[i]);
+        }
+        return sb.toString();
+    }
+
+    public static String join(CharSequence delimiter, Iterable tokens) {
+        StringBuilder sb = new StringBuilder();
+        boolean first = true;
+        for (Object token : tokens) {
+            if (!first)
+                sb.append(delimiter);
+            sb.append(token);
+            first = false;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package android.util;
+
+/**
+ * JVM shim: logs to STDERR.
+ */
+public final class Log {
+
+    private Log() {}
+
+    public static int d(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg);
+        tr.printStackTrace();
+        return 0;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void resultPerCommand() {
+        List<Shell.Result> results = shell.newBatch()
+                .add("echo a")
+                .add("false")
+                .add("x=1", "echo b; echo c >&2")
+                .add("echo $x; printf d")
+                .exec();
+        assertEquals(4, results.size());
+        assertEquals("a", results.get(0).getOut().get(0));
+        assertEquals(1, results.get(1).getCode());
+        assertEquals("b", results.get(2).getOut().get(0));
+        assertEquals("c", results.get(2).getErr().get(0));
+        // Commands share the shell environment, and lines without a break are not merged
+        assertEquals("1", results.get(3).getOut().get(0));
+        assertEquals("d", results.get(3).getOut().get(1));
+    }
+
+    @Test
+    public void exitStopsBatch() {
+        List<Shell.Result> results = Shell.newInstance("sh").newBatch()
+                .add("echo a")
+                .add("exit 0")
+                .add("echo b")
+                .exec();
+        assertEquals(3, results.size());
+        assertEquals(0, results.get(0).getCode());
+        assertEquals(Shell.Result.JOB_NOT_EXECUTED, results.get(2).getCode());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackExecutorTest {
+
+    private static Shell shell;
+    private static Shell pipelined;
+
+    @BeforeClass
+    public static void setUp() {
+        // Run callbacks directly in the threads completing the jobs
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL | Shell.FLAG_PIPELINE_JOBS);
+        pipelined = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+        pipelined.close();
+    }
+
+    private static void callbackRunsJob(Shell sh) throws InterruptedException {
+        List<String> out = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        sh.newJob().add("sleep 0.1", "echo a").to(out).submit(r -> {
+            // Waiting for another job of the same shell must not block its readers
+            sh.newJob().add("echo b").to(out).exec();
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    public void callbackRunsJob() throws InterruptedException {
+        callbackRunsJob(shell);
+    }
+
+    @Test
+    public void pipelinedCallbackRunsJob() throws InterruptedException {
+        callbackRunsJob(pipelined);
+    }
+
+    @Test
+    public void pipelinedResultsInOrder() throws InterruptedException {
+        int n = 200;
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(n);
+        for (int i = 0; i < n; ++i) {
+            pipelined.newJob().add("echo " + i).to(new ArrayList<>()).submit(r -> {
+                lines.add(r.getOut().get(0));
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < n; ++i)
+            assertEquals(String.valueOf(i), lines.get(i));
+    }
+}
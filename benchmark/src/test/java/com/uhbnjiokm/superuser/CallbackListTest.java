@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackListTest {
+
+    private static class Collector extends CallbackList<Integer> {
+
+        final List<Integer> elements = new ArrayList<>();
+        int batches = 0;
+        int dropped = 0;
+
+        @Override
+        public void onAddElement(Integer e) {
+            elements.add(e);
+        }
+
+        @Override
+        public void onAddElements(List<Integer> batch) {
+            ++batches;
+            super.onAddElements(batch);
+        }
+
+        @Override
+        public void onElementsDropped(int count) {
+            dropped += count;
+        }
+    }
+
+    private static CountDownLatch blockMainThread() {
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException ignored) {}
+        });
+        return latch;
+    }
+
+    private static void syncMainThread() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deliversInOrder() throws InterruptedException {
+        Collector list = new Collector();
+        CountDownLatch main = blockMainThread();
+        for (int i = 0; i < 1000; ++i)
+            list.add(i);
+        main.countDown();
+        syncMainThread();
+        syncMainThread();
+        assertEquals(1000, list.elements.size());
+        for (int i = 0; i < 1000; ++i)
+            assertEquals(i, (int) list.elements.get(i));
+        // Elements added while the main thread was busy are delivered together
+        assertEquals(1, list.batches);
+    }
+
+    @Test
+    public void dropsOldest() throws InterruptedException {
+        Collector list = new Collector();
+        list.setMaxPending(10);
+        CountDownLatch main = blockMainThread();
+        for (int i = 0; i < 100; ++i)
+            list.add(i);
+        main.countDown();
+        syncMainThread();
+        syncMainThread();
+        assertEquals(90, list.dropped);
+        assertEquals(10, list.elements.size());
+        assertEquals(90, (int) list.elements.get(0));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Jobs in a {@code /bin/sh} shell using {@link Shell#FLAG_FRAMED_OUTPUT}.
+ */
+public class FramedOutputTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setup() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL | Shell.FLAG_FRAMED_OUTPUT);
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        shell.close();
+    }
+
+    @Test
+    public void taggingLoopsRunning() {
+        // Jobs write to the FIFOs of the tagging loops
+        assertEquals(0, shell.newJob().add("{ : >&8 && : >&9; } 2>/dev/null").exec().getCode());
+    }
+
+    @Test
+    public void outputs() {
+        List<String> out = new ArrayList<>();
+        List<String> err = new ArrayList<>();
+        // Empty lines, lines looking like frames, and a last line without a line break
+        Shell.Result res = shell.newJob()
+                .add("echo a", "echo", "echo ' S1 '", "echo e >&2", "printf '%s\\n' ' L\\\\x'", "printf b", "(exit 3)")
+                .to(out, err).exec();
+        assertEquals(3, res.getCode());
+        assertEquals(Arrays.asList("a", "", " S1 ", " L\\\\x", "b"), out);
+        assertEquals(Collections.singletonList("e"), err);
+    }
+
+    @Test
+    public void mergedStderrKeepsOrder() {
+        List<String> out = new ArrayList<>();
+        shell.newJob().add("echo 1", "echo 2 >&2", "echo 3").to(out, out).exec();
+        assertEquals(Arrays.asList("1", "2", "3"), out);
+    }
+
+    @Test
+    public void linesAreLive() {
+        long start = System.nanoTime();
+        long[] first = new long[1];
+        shell.newJob().add("echo a", "sleep 1", "echo b").onLine(line -> {
+            if (first[0] == 0)
+                first[0] = System.nanoTime() - start;
+        }).exec();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(first[0]);
+        assertTrue("first line after " + elapsed + "ms", elapsed < 800);
+    }
+
+    @Test
+    public void rawOutputIsNotFramed() {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        List<String> out = new ArrayList<>();
+        Shell.Result res = shell.newJob().add("printf 'x\\0y'").toStream(raw).exec();
+        assertEquals(0, res.getCode());
+        assertEquals("x\0y", new String(raw.toByteArray()));
+        // Framing resumes for the next job
+        shell.newJob().add("echo ok").to(out).exec();
+        assertEquals(Collections.singletonList("ok"), out);
+    }
+
+    @Test
+    public void timeoutKillsJob() {
+        long start = System.nanoTime();
+        Shell.Result res = shell.newJob().add("sleep 5").timeout(500, TimeUnit.MILLISECONDS).exec();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(Shell.Result.JOB_TIMEOUT, res.getCode());
+        assertTrue("timed out after " + elapsed + "ms", elapsed >= 400 && elapsed < 4000);
+    }
+
+    @Test
+    public void timedJobFinishesInTime() {
+        List<String> out = new ArrayList<>();
+        Shell.Result res = shell.newJob().add("sleep 0.2", "echo done", "exit 3").to(out)
+                .timeout(5, TimeUnit.SECONDS).exec();
+        assertEquals(3, res.getCode());
+        assertEquals(Collections.singletonList("done"), out);
+    }
+
+    @Test
+    public void shellUsableAfterTimeout() {
+        shell.newJob().add("sleep 5").timeout(200, TimeUnit.MILLISECONDS).exec();
+        List<String> out = new ArrayList<>();
+        Shell.Result res = shell.newJob().add("echo ok").to(out).exec();
+        assertEquals(0, res.getCode());
+        assertEquals(Collections.singletonList("ok"), out);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class IdempotentTest {
+
+    private static Shell shell;
+    private static File file;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        shell = Shell.newInstance("sh");
+        file = File.createTempFile("idempotent", null);
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        shell.close();
+        Shell.getShell().close();
+        file.delete();
+    }
+
+    private static void write(String s) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(s.getBytes("UTF-8"));
+        }
+    }
+
+    @Test
+    public void sharesQueuedJobs() throws Exception {
+        write("");
+        String cmd = "echo x >> '" + file + "'; wc -l < '" + file + "'";
+        shell.newJob().add("sleep 0.3").enqueue();
+        Shell.ResultFuture a = shell.newJob().add(cmd).idempotent().enqueue();
+        Shell.ResultFuture b = shell.newJob().add(cmd).idempotent().enqueue();
+        assertEquals(a.get().getOut(), b.get().getOut());
+        // Ran only once
+        assertEquals(Collections.singletonList("x"), Files.readAllLines(file.toPath()));
+    }
+
+    @Test
+    public void neverJoinsStartedJob() throws Exception {
+        write("old");
+        String cmd = "cat '" + file + "'; echo; sleep 0.5";
+        Shell.ResultFuture running = shell.newJob().add(cmd).idempotent()
+                .to(new ArrayList<>()).enqueue();
+        // Let the first job read the file, then change it
+        Thread.sleep(200);
+        write("new");
+        List<String> out = new ArrayList<>();
+        shell.newJob().add(cmd).idempotent().to(out).exec();
+        assertEquals(Collections.singletonList("old"), running.get().getOut());
+        assertEquals(Collections.singletonList("new"), out);
+    }
+
+    @Test
+    public void followersOwnTheirResults() throws Exception {
+        // Jobs of the global shell collect outputs into lists created internally
+        Shell.sh("sleep 0.3").enqueue();
+        Shell.ResultFuture a = Shell.sh("echo a").idempotent().enqueue();
+        Shell.ResultFuture b = Shell.sh("echo a").idempotent().enqueue();
+        Shell.Result ra = a.get();
+        Shell.Result rb = b.get();
+        assertNotSame(ra, rb);
+        assertNotSame(ra.getOut(), rb.getOut());
+        ra.getOut().clear();
+        assertEquals(Collections.singletonList("a"), rb.getOut());
+    }
+}
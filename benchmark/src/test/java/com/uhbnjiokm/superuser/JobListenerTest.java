@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobListenerTest {
+
+    private static final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        Shell.Config.setJobListener(new Shell.JobListener() {
+            @Override
+            public void onEnqueued(@NonNull Shell.Job job) {
+                events.add("enqueued");
+            }
+
+            @Override
+            public void onStarted(@NonNull Shell.Job job, @NonNull Shell shell) {
+                events.add("started");
+            }
+
+            @Override
+            public void onFinished(@NonNull Shell.Job job, @NonNull Shell.Result result,
+                                   long queueNanos, long execNanos) {
+                events.add("finished " + result.getCode());
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        Shell.Config.setJobListener(null);
+        Shell.getShell().close();
+    }
+
+    @Test
+    public void jobEventsAndMetrics() {
+        ShellMetrics before = Shell.getMetrics().snapshot(false);
+        events.clear();
+        Shell.Result r = Shell.sh("seq 1 10", "false").exec();
+        assertEquals(1, r.getCode());
+        assertEquals(3, events.size());
+        assertEquals("enqueued", events.get(0));
+        assertEquals("started", events.get(1));
+        assertEquals("finished 1", events.get(2));
+
+        ShellMetrics after = Shell.getMetrics().snapshot(false);
+        assertEquals(1, after.getJobCount() - before.getJobCount());
+        assertEquals(10, after.getOutputLines() - before.getOutputLines());
+        assertTrue(after.getExecTime().getCount() > before.getExecTime().getCount());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LineConsumerTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void streamsEveryLine() {
+        List<String> lines = new ArrayList<>();
+        List<String> err = new ArrayList<>();
+        Shell.Result r = shell.newJob()
+                .add("i=0; while [ $i -lt 1000 ]; do echo $i; i=$((i+1)); done; echo e >&2")
+                .onLine(lines::add)
+                .onStderrLine(err::add)
+                .exec();
+        assertTrue(r.isSuccess());
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; ++i)
+            assertEquals(String.valueOf(i), lines.get(i));
+        assertEquals(1, err.size());
+    }
+
+    @Test
+    public void lastLineWithoutBreak() {
+        List<String> lines = new ArrayList<>();
+        shell.newJob().add("printf 'a\\nb'").onLine(lines::add).exec();
+        assertEquals(2, lines.size());
+        assertEquals("b", lines.get(1));
+    }
+
+    @Test
+    public void bufferedConsumerGetsAllLines() {
+        List<String> lines = new ArrayList<>();
+        List<String> stored = new ArrayList<>();
+        shell.newJob().add("seq 1 200").to(stored).onLine(line -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException ignored) {}
+            lines.add(line);
+        }, 4).exec();
+        // The job only completes after the buffer is drained
+        assertEquals(200, lines.size());
+        assertEquals(stored, lines);
+    }
+}
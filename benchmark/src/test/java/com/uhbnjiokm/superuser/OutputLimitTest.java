@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutputLimitTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void keepHead() {
+        List<String> out = new ArrayList<>();
+        Shell.Result r = shell.newJob().add("seq 1 100").to(out).maxOutputLines(10).exec();
+        assertEquals(10, out.size());
+        assertEquals("1", out.get(0));
+        assertEquals("10", out.get(9));
+        assertTrue(r.isTruncated());
+        assertEquals(90, r.getDroppedLines());
+        assertTrue(r.isSuccess());
+    }
+
+    @Test
+    public void keepTail() {
+        List<String> out = new ArrayList<>();
+        Shell.Result r = shell.newJob().add("seq 1 100").to(out)
+                .maxOutputLines(10).outputOverflow(Shell.OVERFLOW_KEEP_TAIL).exec();
+        assertEquals(10, out.size());
+        assertEquals("91", out.get(0));
+        assertEquals("100", out.get(9));
+        assertEquals(90, r.getDroppedLines());
+    }
+
+    @Test
+    public void byteLimit() {
+        List<String> out = new ArrayList<>();
+        // Each line takes 4 bytes including the line break
+        Shell.Result r = shell.newJob().add("seq 100 199").to(out).maxOutputBytes(10).exec();
+        assertEquals(2, out.size());
+        assertTrue(r.isTruncated());
+    }
+
+    @Test
+    public void abort() {
+        List<String> out = new ArrayList<>();
+        long start = System.nanoTime();
+        Shell.Result r = shell.newJob().add("yes").to(out)
+                .maxOutputLines(10).outputOverflow(Shell.OVERFLOW_ABORT).exec();
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(Shell.Result.JOB_ABORTED, r.getCode());
+        assertEquals(10, out.size());
+        assertTrue("took " + ms + "ms", ms < 5000);
+        // The shell is still usable after aborting
+        assertTrue(shell.newJob().add("true").exec().isSuccess());
+    }
+
+    @Test
+    public void withinLimits() {
+        Shell.Result r = shell.newJob().add("seq 1 5").to(new ArrayList<>())
+                .maxOutputLines(5).outputOverflow(Shell.OVERFLOW_ABORT).exec();
+        assertEquals(0, r.getCode());
+        assertFalse(r.isTruncated());
+        assertEquals(5, r.getOut().size());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PreparedCommandTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setup() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    private static List<String> run(Shell.PreparedCommand cmd, String... args) {
+        List<String> out = new ArrayList<>();
+        shell.newJob().add(cmd, args).to(out).exec();
+        return out;
+    }
+
+    private static void assertRejected(String template) {
+        try {
+            Shell.prepare(template);
+            fail("Accepted quoted slot: " + template);
+        } catch (IllegalArgumentException ignored) {}
+    }
+
+    @Test
+    public void slotInSingleQuotes() {
+        assertRejected("echo '{0}'");
+        assertRejected("echo 'a b {0} c'");
+        // Double quotes and escapes have no effect inside single quotes
+        assertRejected("echo '\"' {1} '{0}'");
+        assertRejected("echo '\\' '{0}'");
+    }
+
+    @Test
+    public void slotInDoubleQuotes() {
+        assertRejected("echo \"{0}\"");
+        assertRejected("echo \"dir/{0}/file\"");
+        assertRejected("echo \"$(cat {0})\"");
+        // An escaped double quote does not end the string
+        assertRejected("echo \"a\\\" {0}\"");
+    }
+
+    @Test
+    public void slotNextToQuotes() {
+        Shell.PreparedCommand cmd = Shell.prepare("echo \"dir/\"{0}'/file' \\\"{1}\\' \"'\"");
+        assertEquals(2, cmd.getArgCount());
+        assertEquals(Collections.singletonList("dir/a b/file \"c' '"), run(cmd, "a b", "c"));
+    }
+
+    @Test
+    public void bracesThatAreNotSlots() {
+        Shell.PreparedCommand cmd = Shell.prepare("set -- x; echo {{0} \"${1}\" '{{0}}'");
+        assertEquals(0, cmd.getArgCount());
+        assertEquals(Collections.singletonList("{0} x {0}}"), run(cmd));
+    }
+
+    @Test
+    public void argumentsAreSingleWords() {
+        Shell.PreparedCommand cmd = Shell.prepare("printf '%s\\n' {1} {0}");
+        assertEquals(2, cmd.getArgCount());
+        String evil = "'; echo pwned; '";
+        List<String> out = run(cmd, "$(echo pwned) *", evil);
+        assertEquals(2, out.size());
+        assertEquals(evil, out.get(0));
+        assertEquals("$(echo pwned) *", out.get(1));
+        assertEquals("printf '%s\\n' ''\\''; echo pwned; '\\''' '$(echo pwned) *'",
+                cmd.format("$(echo pwned) *", evil));
+    }
+
+    @Test
+    public void missingArguments() {
+        Shell.PreparedCommand cmd = Shell.prepare("echo {0} {2}");
+        assertEquals(3, cmd.getArgCount());
+        try {
+            cmd.format("a", "b");
+            fail("Accepted missing argument");
+        } catch (IllegalArgumentException ignored) {}
+        try {
+            shell.newJob().add(cmd, "a", null, "c");
+            fail("Accepted null argument");
+        } catch (IllegalArgumentException ignored) {}
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void interactiveOvertakesBulk() throws InterruptedException {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(4);
+        // Keep the shell busy while the other jobs are queued
+        shell.newJob().add("sleep 0.3").submit();
+        for (int i = 0; i < 3; ++i) {
+            String name = "bulk" + i;
+            shell.newJob().add("true").priority(Shell.PRIORITY_BULK).submit(r -> {
+                order.add(name);
+                latch.countDown();
+            });
+        }
+        shell.newJob().add("true").priority(Shell.PRIORITY_INTERACTIVE).submit(r -> {
+            order.add("interactive");
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("interactive", order.get(0));
+        assertEquals("bulk0", order.get(1));
+        assertEquals("bulk2", order.get(3));
+    }
+}
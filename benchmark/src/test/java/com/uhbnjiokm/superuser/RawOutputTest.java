@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RawOutputTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void binaryOutput() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<String> err = new ArrayList<>();
+        Shell.Result r = shell.newJob()
+                .add("printf 'a\\000b\\n\\377c'; echo e >&2; (exit 3)")
+                .to(null, err).toStream(out).exec();
+        assertArrayEquals(new byte[] { 'a', 0, 'b', '\n', (byte) 0xff, 'c' }, out.toByteArray());
+        assertEquals(3, r.getCode());
+        assertTrue(r.getOut().isEmpty());
+        assertEquals("e", err.get(0));
+        // The shell is still in sync with its outputs
+        assertEquals("ok", shell.newJob().add("echo ok").to(new ArrayList<>()).exec().getOut().get(0));
+    }
+
+    @Test
+    public void largeOutputToChannel() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        shell.newJob().add("head -c 1000000 /dev/zero").toChannel(Channels.newChannel(out)).exec();
+        assertEquals(1000000, out.size());
+    }
+}
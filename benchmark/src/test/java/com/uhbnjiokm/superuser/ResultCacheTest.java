@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultCacheTest {
+
+    private static Shell shell;
+    private static File file;
+    private static String cmd;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        shell = Shell.newInstance("sh");
+        file = File.createTempFile("cache", null);
+        // Counts how many times the job actually ran
+        cmd = "echo x >> '" + file + "'; wc -l < '" + file + "'";
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        shell.close();
+        file.delete();
+    }
+
+    @Before
+    public void reset() {
+        Shell.invalidateCache(null);
+    }
+
+    private static List<String> run(long ttlMs) {
+        List<String> out = new ArrayList<>();
+        shell.newJob().add(cmd).cache(ttlMs, TimeUnit.MILLISECONDS).to(out).exec();
+        return out;
+    }
+
+    @Test
+    public void hitWithinTtl() {
+        List<String> first = run(10000);
+        assertEquals(first, run(10000));
+        // Every hit gets its own copy of the outputs
+        first.clear();
+        assertEquals(1, run(10000).size());
+    }
+
+    @Test
+    public void missAfterTtl() throws Exception {
+        List<String> first = run(100);
+        Thread.sleep(200);
+        int a = Integer.parseInt(first.get(0).trim());
+        int b = Integer.parseInt(run(100).get(0).trim());
+        assertEquals(a + 1, b);
+    }
+
+    @Test
+    public void invalidate() {
+        int a = Integer.parseInt(run(10000).get(0).trim());
+        Shell.invalidateCache("echo x");
+        int b = Integer.parseInt(run(10000).get(0).trim());
+        assertEquals(a + 1, b);
+        // Unrelated prefixes keep the entry
+        Shell.invalidateCache("rm ");
+        assertEquals(String.valueOf(b), run(10000).get(0).trim());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResultFutureTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void getAndWhenDone() throws Exception {
+        Shell.ResultFuture future = shell.newJob().add("echo a").to(new ArrayList<>()).enqueue();
+        Shell.Result r = future.get(5, TimeUnit.SECONDS);
+        assertTrue(future.isDone());
+        assertEquals("a", r.getOut().get(0));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        future.whenDone(res -> latch.countDown());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelQueuedJob() throws Exception {
+        shell.newJob().add("sleep 0.3").enqueue();
+        List<String> out = new ArrayList<>();
+        Shell.ResultFuture future = shell.newJob().add("echo x").to(out).enqueue();
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        // Wait for the queue to drain, the cancelled job never runs
+        shell.newJob().add("true").exec();
+        assertTrue(out.isEmpty());
+        assertFalse(future.cancel(false));
+        future.get();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptCacheTest {
+
+    // Counts its own runs in the shell, and prints characters that are special to the shell
+    private static final String SCRIPT = "x=$((${x:-0}+1))\n" +
+            "echo \"run $x\"\n" +
+            "cat <<'EOF'\n) ' \" $x `\nEOF\n";
+
+    private static String script;
+    private Shell shell;
+
+    @BeforeClass
+    public static void setup() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL | Shell.FLAG_CACHE_SCRIPTS);
+        Shell.Config.setCallbackExecutor(Runnable::run);
+        StringBuilder sb = new StringBuilder(SCRIPT);
+        while (sb.length() < 8192)
+            sb.append("# padding the script to be large enough for the cache\n");
+        script = sb.toString();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (shell != null)
+            shell.close();
+    }
+
+    private static InputStream stream(String s) {
+        try {
+            return new ByteArrayInputStream(s.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void assertRun(Shell.Job job, int n) {
+        List<String> out = new ArrayList<>();
+        Shell.Result r = job.add(stream(script)).to(out).exec();
+        assertEquals(0, r.getCode());
+        assertEquals(Arrays.asList("run " + n, ") ' \" $x `"), out);
+    }
+
+    private int installed() {
+        List<String> out = new ArrayList<>();
+        shell.newJob().add("set | grep -c '^__LIBSU_S'").to(out).exec();
+        return Integer.parseInt(out.get(0).trim());
+    }
+
+    @Test
+    public void installsOnce() {
+        shell = Shell.newInstance("sh");
+        for (int i = 1; i <= 3; ++i)
+            assertRun(shell.newJob(), i);
+        assertEquals(1, installed());
+    }
+
+    @Test
+    public void installsOutsideOfTimedJobs() {
+        shell = Shell.newInstance("sh");
+        // Timed jobs run in a subshell, the installed script must outlive it
+        assertRun(shell.newJob().timeout(10, TimeUnit.SECONDS), 1);
+        assertEquals(1, installed());
+        assertRun(shell.newJob(), 1);
+        assertRun(shell.newJob(), 2);
+    }
+
+    @Test
+    public void jobsCannotRemoveScripts() {
+        shell = Shell.newInstance("sh");
+        assertRun(shell.newJob(), 1);
+        List<String> out = new ArrayList<>();
+        shell.newJob().add(
+                "for v in $(set | sed -n 's/^\\(__LIBSU_S[0-9a-f]*\\)=.*/\\1/p');do",
+                "(unset $v) 2>/dev/null || echo kept",
+                "done").to(out).exec();
+        assertEquals(Arrays.asList("kept"), out);
+        assertRun(shell.newJob(), 2);
+    }
+
+    @Test
+    public void sendsSmallScriptsAsIs() {
+        shell = Shell.newInstance("sh");
+        List<String> out = new ArrayList<>();
+        assertTrue(shell.newJob().add(stream(SCRIPT)).to(out).exec().isSuccess());
+        assertEquals("run 1", out.get(0));
+        assertEquals(0, installed());
+    }
+
+    @Test
+    public void everyShellInstallsItsOwnCopy() throws Exception {
+        shell = Shell.newInstance("sh");
+        assertRun(shell.newJob(), 1);
+        try (Shell other = Shell.newInstance("sh")) {
+            assertRun(other.newJob(), 1);
+            assertRun(other.newJob(), 2);
+        }
+        assertRun(shell.newJob(), 2);
+    }
+}
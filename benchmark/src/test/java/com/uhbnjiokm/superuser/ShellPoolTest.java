@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShellPoolTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        Shell.Config.setPoolSize(1, 2);
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        Shell.getPool().closeAll();
+        Shell.getShell().close();
+    }
+
+    private static void awaitSize(ShellPool pool, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.size() != size; ++i)
+            Thread.sleep(50);
+        assertEquals(size, pool.size());
+    }
+
+    @Test
+    public void growsInBackground() throws Exception {
+        ShellPool pool = Shell.getPool();
+        Shell main = Shell.getShell();
+        Shell a = pool.acquire();
+        // Every shell is busy: the new shell is spawned without making the caller wait for it
+        Shell b = pool.acquire();
+        assertSame(main, a);
+        assertSame(main, b);
+        awaitSize(pool, 2);
+        pool.release(a);
+        pool.release(b);
+
+        Shell c = pool.acquire();
+        Shell d = pool.acquire();
+        assertNotSame(c, d);
+        pool.release(c);
+        pool.release(d);
+        // Shells spawned by the pool never replace the global shell
+        assertSame(main, Shell.getCachedShell());
+    }
+
+    @Test
+    public void runsJobsInParallel() throws Exception {
+        awaitSize(Shell.getPool(), 2);
+        CountDownLatch latch = new CountDownLatch(2);
+        long start = System.nanoTime();
+        Shell.sh("sleep 0.5").submit(r -> latch.countDown());
+        Shell.sh("sleep 0.5").submit(r -> latch.countDown());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + ms + "ms", ms < 950);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SupervisorTest {
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+    }
+
+    @After
+    public void reset() throws Exception {
+        Shell.Config.setHotStandby(false);
+        Shell.Config.setAutoRespawn(false);
+        Shell.getShell().close();
+    }
+
+    @Test
+    public void respawnsDeadShell() throws Exception {
+        Shell.Config.setAutoRespawn(true);
+        Shell dead = Shell.getShell();
+        // Exiting kills the shell from the inside, only its readers notice it
+        dead.newJob().add("exit").exec();
+        Shell shell = null;
+        for (int i = 0; i < 100 && shell == null; ++i) {
+            Thread.sleep(50);
+            shell = Shell.getCachedShell();
+        }
+        assertNotNull(shell);
+        assertNotSame(dead, shell);
+        assertFalse(dead.isAlive());
+        assertTrue(shell.isAlive());
+    }
+
+    @Test
+    public void swapsInStandby() throws Exception {
+        Shell.Config.setHotStandby(true);
+        Shell closed = Shell.getShell();
+        // Let the standby shell start
+        Thread.sleep(500);
+        closed.close();
+        Shell shell = Shell.getCachedShell();
+        assertNotNull(shell);
+        assertNotSame(closed, shell);
+        assertTrue(shell.isAlive());
+    }
+}
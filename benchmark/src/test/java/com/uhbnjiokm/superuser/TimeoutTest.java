@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeoutTest {
+
+    private static Shell shell;
+
+    @BeforeClass
+    public static void setUp() {
+        Shell.Config.setFlags(Shell.FLAG_NON_ROOT_SHELL);
+        shell = Shell.newInstance("sh");
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        shell.close();
+    }
+
+    @Test
+    public void killsJobAndKeepsShell() {
+        long start = System.nanoTime();
+        Shell.Result r = shell.newJob().add("echo a", "sleep 10", "echo b")
+                .to(new ArrayList<>()).timeout(200, TimeUnit.MILLISECONDS).exec();
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(Shell.Result.JOB_TIMEOUT, r.getCode());
+        assertTrue("took " + ms + "ms", ms < 5000);
+        assertEquals(1, r.getOut().size());
+
+        List<String> out = new ArrayList<>();
+        assertTrue(shell.isAlive());
+        assertTrue(shell.newJob().add("echo ok").to(out).exec().isSuccess());
+        assertEquals("ok", out.get(0));
+    }
+
+    @Test
+    public void finishesInTime() {
+        Shell.Result r = shell.newJob().add("sleep 0.1", "exit 3")
+                .timeout(5, TimeUnit.SECONDS).exec();
+        assertEquals(3, r.getCode());
+        assertTrue(shell.isAlive());
+    }
+}
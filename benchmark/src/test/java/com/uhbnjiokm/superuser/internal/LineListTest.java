@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LineListTest {
+
+    private static String randomLine(Random r) {
+        // Mostly short lines, with some longer than a whole chunk
+        int len = r.nextInt(10) == 0 ? r.nextInt(20000) : r.nextInt(50);
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; ++i)
+            sb.append(r.nextInt(5) == 0 ? '\u00e9' : (char) ('a' + r.nextInt(26)));
+        return sb.toString();
+    }
+
+    @Test
+    public void storesLines() {
+        Random r = new Random(42);
+        for (int round = 0; round < 20; ++round) {
+            LineList list = new LineList();
+            List<String> expected = new ArrayList<>();
+            int n = r.nextInt(2000);
+            for (int i = 0; i < n; ++i) {
+                String s = randomLine(r);
+                expected.add(s);
+                list.add(s);
+                if (r.nextInt(200) == 0)
+                    list.trim();
+            }
+            list.trim();
+            assertEquals(expected, list);
+            for (int i = 0; i < n; ++i)
+                assertEquals(expected.get(i), list.getSequence(i).toString());
+            // Appending after trimming still works
+            list.add("x");
+            expected.add("x");
+            assertEquals(expected, list);
+        }
+    }
+
+    @Test
+    public void emptyLines() {
+        LineList list = new LineList();
+        list.trim();
+        assertEquals(0, list.size());
+        list.add("");
+        list.add("a");
+        list.add("");
+        assertEquals(3, list.size());
+        assertEquals("", list.get(0));
+        assertEquals("a", list.get(1));
+        assertEquals("", list.getSequence(2).toString());
+    }
+
+    @Test
+    public void asciiSequence() {
+        LineList list = new LineList();
+        list.add("hello");
+        CharSequence seq = list.getSequence(0);
+        assertTrue(!(seq instanceof String));
+        assertEquals("ell", seq.subSequence(1, 4).toString());
+    }
+
+    @Test
+    public void staysMutable() {
+        LineList list = new LineList();
+        for (int i = 0; i < 10; ++i)
+            list.add(String.valueOf(i));
+        list.remove(0);
+        list.add(0, "a");
+        list.set(1, "b");
+        Collections.reverse(list);
+        assertEquals("a", list.get(9));
+        assertEquals("b", list.get(8));
+        list.clear();
+        assertEquals(0, list.size());
+        list.add("c");
+        assertEquals("c", list.get(0));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import com.uhbnjiokm.superuser.Shell;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ShellLauncherTest {
+
+    private static File dir;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        dir = Files.createTempDirectory("launcher").toFile();
+        // Pretend to be root, whoever runs the tests
+        write("id", "echo 'uid=0(root) gid=0(root)'\n");
+    }
+
+    private static void write(String name, String script) throws Exception {
+        File f = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(("#!/bin/sh\n" + script).getBytes("UTF-8"));
+        }
+        f.setExecutable(true);
+    }
+
+    private static String su(String name, String mountMaster) throws Exception {
+        String log = new File(dir, name + ".log").getPath();
+        write(name, "if [ \"$1\" = --mount-master ]; then\n" +
+                "  echo mm >> " + log + "\n" +
+                mountMaster +
+                "  echo mm-done >> " + log + "\n" +
+                "  exit 1\n" +
+                "fi\n" +
+                "echo su >> " + log + "\n" +
+                "PATH=" + dir + ":$PATH exec sh\n");
+        return new File(dir, name).getPath();
+    }
+
+    private static List<String> log(String name) throws Exception {
+        return Files.readAllLines(new File(dir, name + ".log").toPath());
+    }
+
+    @Test
+    public void probesOneAfterAnother() throws Exception {
+        // Mount master is slow to fail, su must not start before it is done
+        String su = su("fail", "  sleep 0.5\n");
+        Shell shell = ShellLauncher.launchRoot(10, true, su);
+        assertNotNull(shell);
+        assertEquals(Shell.ROOT_SHELL, shell.getStatus());
+        shell.close();
+        assertEquals(Arrays.asList("mm", "mm-done", "su"), log("fail"));
+    }
+
+    @Test
+    public void prefersMountMaster() throws Exception {
+        String su = su("mm", "  PATH=" + dir + ":$PATH exec sh\n");
+        Shell shell = ShellLauncher.launchRoot(10, true, su);
+        assertNotNull(shell);
+        assertEquals(Shell.ROOT_MOUNT_MASTER, shell.getStatus());
+        shell.close();
+        // Plain su is never started when mount master works
+        assertEquals(Arrays.asList("mm"), log("mm"));
+    }
+
+    @Test
+    public void plainRoot() throws Exception {
+        String su = su("plain", "");
+        Shell shell = ShellLauncher.launchRoot(10, false, su);
+        assertNotNull(shell);
+        assertEquals(Shell.ROOT_SHELL, shell.getStatus());
+        shell.close();
+        assertEquals(Arrays.asList("su"), log("plain"));
+    }
+
+    @Test
+    public void noRoot() throws Exception {
+        assertNull(ShellLauncher.launchRoot(10, false, new File(dir, "missing").getPath()));
+    }
+}
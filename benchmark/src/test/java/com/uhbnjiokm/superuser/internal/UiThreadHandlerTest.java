@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UiThreadHandlerTest {
+
+    @Test
+    public void drainsInSlices() throws InterruptedException {
+        Handler main = new Handler(Looper.getMainLooper());
+        CountDownLatch block = new CountDownLatch(1);
+        main.post(() -> {
+            try {
+                block.await();
+            } catch (InterruptedException ignored) {}
+        });
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        int n = 1000;
+        for (int i = 0; i < n; ++i) {
+            int id = i;
+            UiThreadHandler.run(() -> order.add(id));
+        }
+        // Posted after all the runnables above, but should not wait for all of them
+        main.post(() -> order.add(-1));
+        CountDownLatch done = new CountDownLatch(1);
+        UiThreadHandler.run(done::countDown);
+        block.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(n + 1, order.size());
+        int marker = order.indexOf(-1);
+        assertTrue("marker at " + marker, marker > 0 && marker < n);
+        order.remove(marker);
+        for (int i = 0; i < n; ++i)
+            assertEquals(i, (int) order.get(i));
+    }
+}
@@ -16,13 +16,19 @@
 
 package com.uhbnjiokm.superuser;
 
+import android.os.SystemClock;
+
 import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
 
 import com.uhbnjiokm.superuser.internal.UiThreadHandler;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An {@link AbstractList} that calls {@code onAddElement} when a new element is added to the list.
@@ -36,13 +42,29 @@ import java.util.List;
  * base {@link List}, and this class will delegate all of its calls to the base with synchronization;
  * it works just like a wrapper from {@link Collections#synchronizedList(List)}.
  * <p>
- * The method {@link #onAddElement(Object)} will always run on the main thread (UI thread).
+ * The method {@link #onAddElement(Object)} will always run on the main thread (UI thread),
+ * or the executor set with {@link Shell.Config#setCallbackExecutor(java.util.concurrent.Executor)}.
+ * <p>
+ * Elements added from background threads are not posted to the main thread one by one: they are
+ * gathered and delivered in batches through {@link #onAddElements(List)}, at most once per
+ * window set with {@link #setBatchWindow(long, TimeUnit)}. Use {@link #setMaxPending(int)} to
+ * bound the number of elements waiting to be delivered.
  */
 
 public abstract class CallbackList<E> extends AbstractList<E> {
 
     protected List<E> mBase = null;
 
+    private final LinkedList<E> mPending = new LinkedList<>();
+    private final Runnable mFlush = this::flush;
+    // A flush is posted or running; only one flush may be in flight at a time
+    private boolean mScheduled = false;
+    private boolean mFlushing = false;
+    private long mWindow = 0;
+    private int mMaxPending = 0;
+    private int mDropped = 0;
+    private long mLastFlush = 0;
+
     /**
      * Sole constructor.
      */
@@ -66,6 +88,116 @@ public abstract class CallbackList<E> extends AbstractList<E> {
     @MainThread
     public abstract void onAddElement(E e);
 
+    /**
+     * The callback when a batch of new elements is added.
+     * <p>
+     * This method will always run on the main thread and synchronized.
+     * The default implementation calls {@link #onAddElement(Object)} for each element; override
+     * this method to handle many elements at once, e.g. to update the UI only once per batch.
+     * @param elements the new elements added to the list, in the order they were added.
+     */
+    @MainThread
+    public void onAddElements(@NonNull List<E> elements) {
+        for (E e : elements)
+            onAddElement(e);
+    }
+
+    /**
+     * The callback when elements are dropped before being delivered because more than
+     * {@link #setMaxPending(int)} elements were waiting for the main thread.
+     * <p>
+     * This method will always run on the main thread and synchronized, before the callback
+     * of the next batch. Dropped elements are still stored in the base list.
+     * The default implementation does nothing.
+     * @param count the number of dropped elements.
+     */
+    @MainThread
+    public void onElementsDropped(int count) { }
+
+    /**
+     * Set the minimum interval between two batches delivered to the main thread.
+     * <p>
+     * The default window is 0, which delivers all elements added in the meantime as soon
+     * as the main thread is available.
+     * @param window the minimum interval between batches.
+     * @param unit the time unit of {@code window}.
+     */
+    public void setBatchWindow(long window, @NonNull TimeUnit unit) {
+        synchronized (mPending) {
+            mWindow = unit.toMillis(window);
+        }
+    }
+
+    /**
+     * Set the maximum number of elements waiting to be delivered to the main thread.
+     * <p>
+     * When the limit is reached, the oldest waiting elements are dropped and reported with
+     * {@link #onElementsDropped(int)}, so a fast producer can never flood the main thread.
+     * Adding elements never blocks. The default is 0, which means unlimited.
+     * @param max the maximum number of waiting elements, or 0 for unlimited.
+     */
+    public void setMaxPending(int max) {
+        synchronized (mPending) {
+            mMaxPending = max;
+        }
+    }
+
+    private void flush() {
+        List<E> batch;
+        int dropped;
+        synchronized (mPending) {
+            if (mPending.isEmpty() && mDropped == 0) {
+                // Already delivered in the callback thread
+                mScheduled = false;
+                return;
+            }
+            batch = new ArrayList<>(mPending);
+            mPending.clear();
+            dropped = mDropped;
+            mDropped = 0;
+            mFlushing = true;
+            mLastFlush = SystemClock.uptimeMillis();
+        }
+        deliver(batch, dropped);
+        long delay;
+        synchronized (mPending) {
+            mFlushing = false;
+            if (mPending.isEmpty() && mDropped == 0) {
+                mScheduled = false;
+                return;
+            }
+            // Elements added during the delivery are sent in the next batch
+            delay = nextDelay();
+        }
+        schedule(delay);
+    }
+
+    private synchronized void deliver(List<E> batch, int dropped) {
+        if (dropped > 0)
+            onElementsDropped(dropped);
+        if (!batch.isEmpty())
+            onAddElements(batch);
+    }
+
+    private void enqueue(E e) {
+        if (mMaxPending > 0 && mPending.size() >= mMaxPending) {
+            mPending.removeFirst();
+            ++mDropped;
+        }
+        mPending.addLast(e);
+    }
+
+    private long nextDelay() {
+        return mWindow - (SystemClock.uptimeMillis() - mLastFlush);
+    }
+
+    private void schedule(long delay) {
+        if (delay > 0)
+            UiThreadHandler.runDelayed(mFlush, delay);
+        else
+            UiThreadHandler.run(mFlush);
+    }
+
     /**
      * @see List#get(int)
      */
@@ -89,7 +221,37 @@ public abstract class CallbackList<E> extends AbstractList<E> {
     public void add(int i, E s) {
         if (mBase != null)
             mBase.add(i, s);
-        UiThreadHandler.runWithLock(this, () -> onAddElement(s));
+        if (UiThreadHandler.isCallbackThread()) {
+            synchronized (this) {
+                List<E> batch;
+                int dropped;
+                synchronized (mPending) {
+                    if (mFlushing) {
+                        // The running flush delivers older elements, queue behind them
+                        enqueue(s);
+                        return;
+                    }
+                    // Deliver waiting elements first to keep the order
+                    batch = new ArrayList<>(mPending);
+                    mPending.clear();
+                    dropped = mDropped;
+                    mDropped = 0;
+                }
+                deliver(batch, dropped);
+                onAddElement(s);
+            }
+            return;
+        }
+        long delay;
+        synchronized (mPending) {
+            enqueue(s);
+            if (mScheduled)
+                return;
+            mScheduled = true;
+            delay = nextDelay();
+        }
+        // Never run callbacks while holding the lock of the producer
+        schedule(delay);
     }
 
     /**
@@ -21,9 +21,15 @@ import android.content.Context;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.uhbnjiokm.superuser.internal.Factory;
 import com.uhbnjiokm.superuser.internal.InternalUtils;
+import com.uhbnjiokm.superuser.internal.JobEvents;
+import com.uhbnjiokm.superuser.internal.MetricsImpl;
+import com.uhbnjiokm.superuser.internal.ResultCache;
+import com.uhbnjiokm.superuser.internal.ShellLauncher;
+import com.uhbnjiokm.superuser.internal.Supervisor;
 import com.uhbnjiokm.superuser.internal.UiThreadHandler;
 
 import java.io.Closeable;
@@ -31,11 +37,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -124,6 +134,94 @@ public abstract class Shell implements Closeable {
      * Constant value {@value}.
      */
     public static final int FLAG_USE_MAGISK_BUSYBOX = 0x10;
+    /**
+     * If set, jobs will be pipelined: a new {@code Shell} will keep sending queued jobs to
+     * the shell back-to-back without waiting for the previous job to finish, and the outputs
+     * of each job are collected in order as they become available.
+     * <p>
+     * This greatly improves throughput when running a lot of small jobs. However, commands
+     * in the job <strong>MUST NOT</strong> read from STDIN, or they will consume the
+     * following jobs as input.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int FLAG_PIPELINE_JOBS = 0x20;
+    /**
+     * If set, a new {@code Shell} starts a pair of loops that relay the outputs of all jobs.
+     * Each line is sent back as a frame prefixed with its type, and each job ends with a
+     * status frame carrying its return code on both STDOUT and STDERR. No end markers have
+     * to be searched in the outputs, and lines still reach {@link LineConsumer}s as soon as
+     * they are printed.
+     * <p>
+     * Jobs do not start any extra processes, but every line of output passes through a loop
+     * of the shell, which is slower than reading the outputs directly for jobs with large
+     * outputs. Outputs written to an {@code OutputStream} with {@link Job#toStream} are not
+     * framed. The loops are fed through named pipes, so the shell has to be able to create
+     * them in the cache directory of the app (or {@code $TMPDIR} when no {@code Context} is
+     * available); otherwise the shell falls back to end markers. Jobs must not use the file
+     * descriptors 8 and 9.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int FLAG_FRAMED_OUTPUT = 0x40;
+    /**
+     * If set, large scripts added with {@link Job#add(InputStream)} are installed into the
+     * shell the first time they run, as read-only shell variables named by the hash of their
+     * contents. Running a script again in the same shell only sends a short command
+     * evaluating the installed copy instead of the whole script.
+     * <p>
+     * Installed scripts live in the memory of the shell until it is closed, and cannot be
+     * modified or removed by jobs. Each shell keeps up to 4MB of scripts; other scripts,
+     * and scripts smaller than 4KB, are always sent as is. An installed script is parsed as a
+     * whole before it runs, so a syntax error prevents the whole script from running.
+     * Scripts are read into memory to be hashed, so do not use this for scripts that are
+     * generated while the job is running. The flag is checked when a script is added to a job.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int FLAG_CACHE_SCRIPTS = 0x80;
+    /**
+     * Job priority: user facing operations that should finish as soon as possible.
+     * One possible value of {@link Job#priority(int)}.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int PRIORITY_INTERACTIVE = 0;
+    /**
+     * Job priority: the default priority.
+     * One possible value of {@link Job#priority(int)}.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * Job priority: background bulk work such as large file transfers.
+     * One possible value of {@link Job#priority(int)}.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int PRIORITY_BULK = 2;
+    /**
+     * Output overflow policy: keep the first lines and drop the rest.
+     * One possible value of {@link Job#outputOverflow(int)}.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int OVERFLOW_KEEP_HEAD = 0;
+    /**
+     * Output overflow policy: keep the last lines and drop the oldest ones.
+     * One possible value of {@link Job#outputOverflow(int)}.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int OVERFLOW_KEEP_TAIL = 1;
+    /**
+     * Output overflow policy: kill the job once its STDOUT exceeds the limits.
+     * One possible value of {@link Job#outputOverflow(int)}.
+     * <p>
+     * Constant value {@value}.
+     */
+    public static final int OVERFLOW_ABORT = 2;
     /**
      * The {@link ExecutorService} that manages all worker threads used in {@code libsu}.
      */
@@ -131,9 +229,15 @@ public abstract class Shell implements Closeable {
 
     private static int flags = 0;
     private static long timeout = 20;
-    private static Shell globalShell;
+    private static Executor callbackExecutor = null;
+    private static JobListener jobListener = null;
+    private static boolean autoRespawn = false;
+    private static boolean hotStandby = false;
+    private static volatile Shell globalShell;
+    private static final Object swapLock = new Object();
     private static List<Class<? extends Initializer>> initClasses = new ArrayList<>();
-    private static boolean isInitGlobal;
+    private static boolean hadGlobal;
+    private static final ShellPool pool = new ShellPool();
 
     /**
      * Get {@code Shell} via {@link #getCachedShell()} or create new if required.
@@ -146,9 +250,13 @@ public abstract class Shell implements Closeable {
     public synchronized static Shell getShell() {
         Shell shell = getCachedShell();
         if (shell == null) {
-            isInitGlobal = true;
-            shell = newInstance();
-            isInitGlobal = false;
+            boolean respawn = hadGlobal;
+            if (respawn)
+                MetricsImpl.INSTANCE.shellRespawned();
+            shell = newInstance(true);
+            hadGlobal = true;
+            if (respawn)
+                JobEvents.shellRespawned(shell);
         }
         return shell;
     }
@@ -157,7 +265,7 @@ public abstract class Shell implements Closeable {
      * Get {@code Shell} via {@link #getCachedShell()} or create new if required, returns via callback.
      * If {@link #getCachedShell()} does not return null, the callback will be called immediately,
      * or else it will call {@link #newInstance()} in a background thread and invoke the callback
-     * in the main thread.
+     * in the main thread (or the executor set with {@link Config#setCallbackExecutor(Executor)}).
      * @param callback called when a shell is acquired.
      */
     public static void getShell(@NonNull GetShellCallback callback) {
@@ -180,16 +288,64 @@ public abstract class Shell implements Closeable {
      */
     @Nullable
     public static Shell getCachedShell() {
-        if (globalShell != null && globalShell.getStatus() < 0)
-            globalShell = null;
-        return globalShell;
+        Shell shell = globalShell;
+        if (shell != null && shell.getStatus() < 0) {
+            Shell standby = null;
+            synchronized (swapLock) {
+                if (globalShell == shell) {
+                    // Swap in the hot standby shell if available
+                    standby = Supervisor.takeStandby();
+                    globalShell = standby;
+                }
+                shell = globalShell;
+            }
+            if (standby != null) {
+                InternalUtils.log("SHELL", "swap in standby shell");
+                MetricsImpl.INSTANCE.shellRespawned();
+                JobEvents.shellRespawned(standby);
+                Supervisor.watch(standby);
+            }
+        }
+        return shell;
+    }
+
+    /**
+     * Get the global {@link ShellPool}.
+     * <p>
+     * The pool is used by the high level APIs to dispatch jobs to multiple shells.
+     * Its size can be configured with {@link Config#setPoolSize(int, int)}.
+     * @return the global {@code ShellPool} instance.
+     */
+    @NonNull
+    public static ShellPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Get the runtime metrics of all shells and jobs.
+     * @return the global {@code ShellMetrics} instance.
+     */
+    @NonNull
+    public static ShellMetrics getMetrics() {
+        return MetricsImpl.INSTANCE;
     }
 
-    private static void setCachedShell(Shell shell) {
-        if (isInitGlobal) {
-            // Set the global shell
+    /**
+     * Drop cached results of jobs whose commands start with a specific prefix.
+     * <p>
+     * The commands of a job are joined with line breaks before matching.
+     * @param prefix the prefix to match, or {@code null} to drop all cached results.
+     * @see Job#cache(long, TimeUnit)
+     */
+    public static void invalidateCache(@Nullable String prefix) {
+        ResultCache.invalidate(prefix);
+    }
+
+    private static void setGlobalShell(Shell shell) {
+        synchronized (swapLock) {
             globalShell = shell;
         }
+        Supervisor.watch(shell);
     }
 
     /**
@@ -208,37 +364,41 @@ public abstract class Shell implements Closeable {
      * </ol>
      * The developer should check the status of the returned {@code Shell} with {@link #getStatus()}
      * since it may return the result of any of the 3 possible methods.
+     * <p>
+     * The winning method is remembered in the app's data directory, and later calls go straight
+     * to it. Should it fail, the first 2 methods are tried at the same time to speed up startup;
+     * they are only tried one after another while nothing is remembered yet, so the user is
+     * never asked for root permission twice at once.
      * @return a new {@code Shell} instance.
      * @throws NoShellException impossible to construct a {@link Shell} instance, or initialization
      * failed when using the configured {@link Initializer}.
      */
     @NonNull
     public static Shell newInstance() {
-        Shell shell = null;
-
-        // Root mount master
-        if (!InternalUtils.hasFlag(FLAG_NON_ROOT_SHELL) && InternalUtils.hasFlag(FLAG_MOUNT_MASTER)) {
-            try {
-                shell = newInstance("ac_log", "--mount-master");
-                if (shell.getStatus() != ROOT_MOUNT_MASTER)
-                    shell = null;
-            } catch (NoShellException ignore) {}
-        }
+        return newInstance(false);
+    }
 
-        // Normal root shell
-        if (shell == null && !InternalUtils.hasFlag(FLAG_NON_ROOT_SHELL)) {
-            try {
-                shell = newInstance("ac_log");
-                if (shell.getStatus() != ROOT_SHELL)
-                    shell = null;
-            } catch (NoShellException ignore) {}
+    /**
+     * Construct a new {@code Shell} with the default methods.
+     * @param global whether the shell is constructed as the global shell by {@link #getShell()}.
+     */
+    private static Shell newInstance(boolean global) {
+        // Root mount master or normal root shell
+        if (!InternalUtils.hasFlag(FLAG_NON_ROOT_SHELL)) {
+            Shell shell = ShellLauncher.launchRoot(timeout, InternalUtils.hasFlag(FLAG_MOUNT_MASTER));
+            if (shell != null) {
+                try {
+                    return initShell(global, shell);
+                } catch (NoShellException e) {
+                    try {
+                        shell.close();
+                    } catch (IOException ignored) {}
+                }
+            }
         }
 
         // Try normal non-root shell
-        if (shell == null)
-            shell = newInstance("sh");
-
-        return shell;
+        return newInstance(global, "sh");
     }
 
     /**
@@ -251,32 +411,52 @@ public abstract class Shell implements Closeable {
      */
     @NonNull
     public static Shell newInstance(String... commands) {
+        return newInstance(false, commands);
+    }
+
+    /**
+     * Construct a new {@code Shell} with provided commands.
+     * @param global whether the shell is constructed as the global shell by {@link #getShell()}.
+     */
+    private static Shell newInstance(boolean global, String... commands) {
+        Shell shell;
         try {
-            Shell shell = Factory.createShell(timeout, commands);
-            if (InternalUtils.hasFlag(FLAG_USE_MAGISK_BUSYBOX))
-                shell.newJob().add("export PATH=/sbin/.magisk/busybox:$PATH").exec();
-            try {
-                Context ctx = InternalUtils.getContext();
-                setCachedShell(shell);
-                for (Class<? extends Initializer> cls : initClasses) {
-                    Constructor<? extends Initializer> ic = cls.getDeclaredConstructor();
-                    ic.setAccessible(true);
-                    Initializer init = ic.newInstance();
-                    if (!init.onInit(ctx, shell)) {
-                        setCachedShell(null);
-                        throw new NoShellException("Unable to init shell");
-                    }
-                }
-            } catch (Exception e) {
-                if (e instanceof RuntimeException)
-                    throw (RuntimeException) e;
-                InternalUtils.stackTrace(e);
-            }
-            return shell;
+            shell = Factory.createShell(timeout, commands);
         } catch (IOException e) {
             InternalUtils.stackTrace(e);
             throw new NoShellException("Unable to create a shell!", e);
         }
+        return initShell(global, shell);
+    }
+
+    /**
+     * Run the {@link Initializer}s on a newly constructed shell.
+     * <p>
+     * The global shell is cached before the initializers run, so they can use the high level APIs.
+     */
+    private static Shell initShell(boolean global, Shell shell) {
+        if (InternalUtils.hasFlag(FLAG_USE_MAGISK_BUSYBOX))
+            shell.newJob().add("export PATH=/sbin/.magisk/busybox:$PATH").exec();
+        try {
+            Context ctx = InternalUtils.getContext();
+            if (global)
+                setGlobalShell(shell);
+            for (Class<? extends Initializer> cls : initClasses) {
+                Constructor<? extends Initializer> ic = cls.getDeclaredConstructor();
+                ic.setAccessible(true);
+                Initializer init = ic.newInstance();
+                if (!init.onInit(ctx, shell)) {
+                    if (global)
+                        setGlobalShell(null);
+                    throw new NoShellException("Unable to init shell");
+                }
+            }
+        } catch (Exception e) {
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            InternalUtils.stackTrace(e);
+        }
+        return shell;
     }
 
     /**
@@ -346,6 +526,30 @@ public abstract class Shell implements Closeable {
         return Factory.createJob(false, in);
     }
 
+    /**
+     * Compile a command template into a {@link PreparedCommand}.
+     * <p>
+     * Parameter slots are written as {@code {N}}, where {@code N} is the index of the argument
+     * passed to {@link Job#add(PreparedCommand, String...)}. Every argument is quoted as a
+     * single shell word, so arguments never need any escaping.
+     * For example, {@code Shell.prepare("[ -e {0} ] && cat {0}")}.
+     * <p>
+     * Braces directly following {@code $} are left as is, so parameter expansions such as
+     * <code>${1}</code> keep working. Write <code>{{</code> for a literal <code>{</code>,
+     * e.g. <code>"echo {{0}"</code> outputs <code>{0}</code>.
+     * <p>
+     * Slots must not be placed inside single or double quotes, where the quoted argument would
+     * end the surrounding string. Close the quotes around the slot instead, e.g.
+     * <code>"echo \"dir/\"{0}"</code> rather than <code>"echo \"dir/{0}\""</code>.
+     * @param template the command template.
+     * @return the compiled command, which can be reused by any number of jobs and threads.
+     * @throws IllegalArgumentException a slot is placed inside quotes.
+     */
+    @NonNull
+    public static PreparedCommand prepare(@NonNull String template) {
+        return Factory.createPreparedCommand(template);
+    }
+
     /* ***************
      * Non-static APIs
      * ****************/
@@ -373,6 +577,24 @@ public abstract class Shell implements Closeable {
      */
     public abstract void execTask(@NonNull Task task) throws IOException;
 
+    /**
+     * Execute a {@code Task} with the shell with a specific priority.
+     * <p>
+     * Same as {@link #execTask(Task)}, but when multiple threads are waiting for the shell,
+     * access will be granted according to {@code priority}.
+     * {@link #execTask(Task)} uses {@link #PRIORITY_NORMAL}.
+     * <p>
+     * The default implementation ignores {@code priority} and calls {@link #execTask(Task)}.
+     * @param task the desired task.
+     * @param priority either {@link #PRIORITY_INTERACTIVE}, {@link #PRIORITY_NORMAL},
+     *                 or {@link #PRIORITY_BULK}.
+     * @throws IOException I/O errors when doing operations with STDIN/STDOUT/STDERR
+     * @see Job#priority(int)
+     */
+    public void execTask(@NonNull Task task, int priority) throws IOException {
+        execTask(task);
+    }
+
     /**
      * Construct a new {@link Job} that will use the shell for execution.
      * <p>
@@ -383,6 +605,17 @@ public abstract class Shell implements Closeable {
      */
     public abstract Job newJob();
 
+    /**
+     * Construct a new {@link Batch} that will use the shell for execution.
+     * <p>
+     * The default implementation runs the whole batch as a single {@link Job}
+     * created with {@link #newJob()}.
+     * @return a batch that the developer can add commands to and execute later.
+     */
+    public Batch newBatch() {
+        return Factory.createBatch(this);
+    }
+
     /**
      * Get the status of the shell.
      * @return the status of the shell.
@@ -468,8 +701,10 @@ public abstract class Shell implements Closeable {
          * constructed.
          * @param flags the desired flags.
          *              Value is either 0 or bitwise-or'd value of {@link #FLAG_NON_ROOT_SHELL},
-         *              {@link #FLAG_VERBOSE_LOGGING}, {@link #FLAG_MOUNT_MASTER}, or
-         *              {@link #FLAG_REDIRECT_STDERR}
+         *              {@link #FLAG_VERBOSE_LOGGING}, {@link #FLAG_MOUNT_MASTER},
+         *              {@link #FLAG_REDIRECT_STDERR}, {@link #FLAG_USE_MAGISK_BUSYBOX},
+         *              {@link #FLAG_PIPELINE_JOBS}, {@link #FLAG_FRAMED_OUTPUT}, or
+         *              {@link #FLAG_CACHE_SCRIPTS}
          */
         public static void setFlags(int flags) {
             Shell.flags = flags;
@@ -507,6 +742,125 @@ public abstract class Shell implements Closeable {
         public static void setTimeout(long timeout) {
             Shell.timeout = timeout;
         }
+
+        /**
+         * Set the bounds of the global {@link ShellPool}.
+         * <p>
+         * Jobs created with the high level APIs such as {@link Shell#su(String...)} will be dispatched
+         * to the least loaded shell in the pool. Additional shells are constructed on-demand
+         * when all shells are busy, and closed after staying idle for 30 seconds, until the
+         * pool shrinks back to {@code minShells}.
+         * <p>
+         * The default pool size is {@code [1, 1]}: all jobs run in the global shell.
+         * @param minShells the minimum number of shells to keep alive, including the global shell.
+         * @param maxShells the maximum number of shells allowed in the pool.
+         */
+        public static void setPoolSize(int minShells, int maxShells) {
+            setPoolSize(minShells, maxShells, 30);
+        }
+
+        /**
+         * Set the bounds of the global {@link ShellPool}.
+         * @see #setPoolSize(int, int)
+         * @param minShells the minimum number of shells to keep alive, including the global shell.
+         * @param maxShells the maximum number of shells allowed in the pool.
+         * @param keepAlive the time in seconds an additional idle shell is kept alive.
+         */
+        public static void setPoolSize(int minShells, int maxShells, long keepAlive) {
+            pool.setBounds(minShells, maxShells, TimeUnit.SECONDS.toMillis(keepAlive));
+        }
+
+        /**
+         * Set the maximum number of results kept by the result cache.
+         * <p>
+         * The default size is 64. Setting 0 disables caching.
+         * @param size the maximum number of cached results.
+         * @see Job#cache(long, TimeUnit)
+         */
+        public static void setCacheSize(int size) {
+            ResultCache.setMaxSize(size);
+        }
+
+        /**
+         * Set the {@link Executor} that runs all callbacks of {@code libsu}.
+         * <p>
+         * This includes {@link ResultCallback}s passed to {@link Job#submit(ResultCallback)},
+         * {@link GetShellCallback}s passed to {@link #getShell(GetShellCallback)}, and
+         * the callbacks of {@link CallbackList}. By default ({@code null}), callbacks run on
+         * the main thread. Headless services and code running on a plain JVM can use
+         * a different executor to avoid depending on the main looper; pass
+         * {@code Runnable::run} to run callbacks directly in the worker thread
+         * that produces them, removing the thread hop entirely.
+         * <p>
+         * Results of jobs are never produced in the threads reading outputs of the shell, so
+         * even with {@code Runnable::run}, a {@link ResultCallback} may run and wait for
+         * other jobs in the same shell.
+         * @param executor the executor for callbacks, or {@code null} to use the main thread.
+         */
+        public static void setCallbackExecutor(@Nullable Executor executor) {
+            callbackExecutor = executor;
+        }
+
+        /**
+         * Get the {@link Executor} that runs all callbacks of {@code libsu}.
+         * @return the executor set with {@link #setCallbackExecutor(Executor)}, or {@code null}
+         * if callbacks run on the main thread.
+         */
+        @Nullable
+        public static Executor getCallbackExecutor() {
+            return callbackExecutor;
+        }
+
+        /**
+         * Set whether to respawn the global shell in the background as soon as it dies.
+         * <p>
+         * Without this, the death of the global shell is only noticed by the next job, which
+         * then has to wait for a new shell to be constructed (including the root permission
+         * request). With auto respawn, a new global shell is constructed right after the death
+         * is detected. Failed attempts are retried with an exponential backoff, from 1 second
+         * up to 1 minute.
+         * <p>
+         * Disabled by default.
+         * @param enable whether to enable auto respawn.
+         */
+        public static void setAutoRespawn(boolean enable) {
+            autoRespawn = enable;
+            Supervisor.configure(autoRespawn, hotStandby);
+        }
+
+        /**
+         * Set whether to keep a hot standby shell, ready to replace the global shell.
+         * <p>
+         * An additional shell is constructed and initialized in the background. When the
+         * global shell dies or is closed, the standby shell immediately becomes the new global
+         * shell and another standby shell is constructed, so the death of a shell costs
+         * nothing to the next job. This implies {@link #setAutoRespawn(boolean)}, at the cost
+         * of one more idle shell process.
+         * <p>
+         * Disabled by default.
+         * @param enable whether to keep a hot standby shell.
+         */
+        public static void setHotStandby(boolean enable) {
+            hotStandby = enable;
+            Supervisor.configure(autoRespawn, hotStandby);
+        }
+
+        /**
+         * Set the {@link JobListener} receiving lifecycle events of all jobs and shells.
+         * @param listener the listener, or {@code null} to remove the current listener.
+         */
+        public static void setJobListener(@Nullable JobListener listener) {
+            jobListener = listener;
+        }
+
+        /**
+         * Get the {@link JobListener} set with {@link #setJobListener(JobListener)}.
+         * @return the current listener, or {@code null} if not set.
+         */
+        @Nullable
+        public static JobListener getJobListener() {
+            return jobListener;
+        }
     }
 
     /**
@@ -535,6 +889,21 @@ public abstract class Shell implements Closeable {
          */
         public static final int JOB_NOT_EXECUTED = -1;
 
+        /**
+         * This code indicates that the job was killed after exceeding its timeout set with
+         * {@link Job#timeout(long, TimeUnit)}. Outputs produced before the timeout are available.
+         * Constant value: {@value}.
+         */
+        public static final int JOB_TIMEOUT = -2;
+
+        /**
+         * This code indicates that the job was killed because its STDOUT exceeded the limits set
+         * with {@link Job#maxOutputLines(int)} or {@link Job#maxOutputBytes(long)} under
+         * {@link #OVERFLOW_ABORT}. Outputs within the limits are available.
+         * Constant value: {@value}.
+         */
+        public static final int JOB_ABORTED = -3;
+
         /**
          * Get the output of STDOUT.
          * @return a list of strings that stores the output of STDOUT. Empty list if no output
@@ -551,14 +920,67 @@ public abstract class Shell implements Closeable {
         @NonNull
         public abstract List<String> getErr();
 
+        /**
+         * Get a single line of the output of STDOUT.
+         * <p>
+         * Outputs collected by the library itself (e.g. jobs created with {@link #sh(String...)}
+         * without calling {@link Job#to(List)}) are stored compactly as raw bytes and only decoded
+         * when accessed. Use this method instead of {@link #getOut()} to access lines without
+         * creating a {@link String} for each line that only contains ASCII characters.
+         * @param index the index of the line.
+         * @return the line as a {@link CharSequence}.
+         */
+        @NonNull
+        public CharSequence getOutLine(int index) {
+            return getOut().get(index);
+        }
+
+        /**
+         * Get a single line of the output of STDERR.
+         * @param index the index of the line.
+         * @return the line as a {@link CharSequence}.
+         * @see #getOutLine(int)
+         */
+        @NonNull
+        public CharSequence getErrLine(int index) {
+            return getErr().get(index);
+        }
+
         /**
          * Get the return code of the job.
          * @return the return code of the last operation in the shell. If the job is executed
          * properly, the code should range from 0-255. If the job fails to execute, it will return
-         * {@link #JOB_NOT_EXECUTED}.
+         * {@link #JOB_NOT_EXECUTED}. If the job times out, it will return {@link #JOB_TIMEOUT}.
+         * If the job is killed for producing too much output, it will return {@link #JOB_ABORTED}.
          */
         public abstract int getCode();
 
+        /**
+         * Whether any output was dropped because of the limits set with
+         * {@link Job#maxOutputLines(int)} or {@link Job#maxOutputBytes(long)}.
+         * @return {@code true} if the stored outputs are incomplete.
+         */
+        public boolean isTruncated() {
+            return false;
+        }
+
+        /**
+         * Get the number of lines dropped from STDOUT and STDERR because of output limits.
+         * @return the number of dropped lines.
+         */
+        public long getDroppedLines() {
+            return 0;
+        }
+
+        /**
+         * Get the number of bytes dropped from STDOUT and STDERR because of output limits,
+         * including line breaks.
+         * @return the number of dropped bytes.
+         */
+        public long getDroppedBytes() {
+            return 0;
+        }
+
         /**
          * Whether the job succeeded.
          * {@code getCode() == 0}.
@@ -579,6 +1001,42 @@ public abstract class Shell implements Closeable {
         void onResult(Result out);
     }
 
+    /**
+     * A {@link Future} representing the pending result of a {@link Job} returned by
+     * {@link Job#enqueue()}.
+     * <p>
+     * Errors are reported in the {@link Result} itself, so {@link #get()} never throws
+     * {@link java.util.concurrent.ExecutionException}. Cancelling the future removes the job from
+     * the queue if it has not started yet; a job that is already running cannot be cancelled.
+     */
+    public abstract static class ResultFuture implements Future<Result> {
+
+        /**
+         * Register a callback to receive the result once the job is done.
+         * <p>
+         * The callback runs with the executor specified in {@link Job#enqueue(Executor)}. If the
+         * future is cancelled, the callback receives a result with the code
+         * {@link Result#JOB_NOT_EXECUTED}. If the job is already done, the callback is
+         * scheduled immediately.
+         * @param cb the callback to receive the result of the job.
+         * @return this future for chaining of calls.
+         */
+        public abstract ResultFuture whenDone(@NonNull ResultCallback cb);
+    }
+
+    /**
+     * The consumer to receive output lines in {@link Job#onLine(LineConsumer)} and
+     * {@link Job#onStderrLine(LineConsumer)}.
+     */
+    public interface LineConsumer {
+
+        /**
+         * @param line a new line of output, without the line break.
+         */
+        @WorkerThread
+        void onLine(@NonNull String line);
+    }
+
     /**
      * Represents a Job that could later be executed or submitted to background thread.
      * <p>
@@ -606,6 +1064,221 @@ public abstract class Shell implements Closeable {
          */
         public abstract Job to(@Nullable List<String> stdout, @Nullable List<String> stderr);
 
+        /**
+         * Stream raw output of STDOUT to an {@link OutputStream}.
+         * <p>
+         * Output is copied byte-for-byte without being decoded or split into lines, which is
+         * required for binary outputs such as {@code screencap -p} or {@code tar c}.
+         * {@link Result#getOut()} will always return an empty list, but the return code is still
+         * available in the {@link Result}. STDERR is still handled as specified with
+         * {@link #to(List, List)} or {@link #onStderrLine(LineConsumer)}, and the flag
+         * {@link #FLAG_REDIRECT_STDERR} is ignored.
+         * <p>
+         * The stream is flushed but not closed when the job is done. If writing to the stream
+         * fails, the rest of the output is discarded.
+         * @param stdout the stream to write STDOUT.
+         * @return this Job object for chaining of calls.
+         */
+        public Job toStream(@NonNull OutputStream stdout) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stream raw output of STDOUT to a {@link WritableByteChannel}.
+         * @param stdout the channel to write STDOUT.
+         * @return this Job object for chaining of calls.
+         * @see #toStream(OutputStream)
+         */
+        public Job toChannel(@NonNull WritableByteChannel stdout) {
+            return toStream(Channels.newOutputStream(stdout));
+        }
+
+        /**
+         * Stream output of STDOUT to a consumer line by line.
+         * <p>
+         * Unlike {@link #to(List)}, lines are not stored anywhere, so jobs producing huge outputs
+         * can be processed with constant memory. The consumer runs in the background thread
+         * reading outputs of the shell as soon as each line arrives, and the shell is blocked
+         * while the consumer is running; use {@link #onLine(LineConsumer, int)} for consumers
+         * that could be slow. Calls to the consumer are serialized.
+         * <p>
+         * The consumer must never wait for another job running in the same shell, for example
+         * by calling {@link #exec()} on it: jobs of a shell run one after another, so the other job
+         * cannot start before this one completes, which in turn waits for the consumer to return.
+         * <p>
+         * Output of STDERR will also be sent to the same consumer if the flag
+         * {@link #FLAG_REDIRECT_STDERR} is set and no consumer is set with
+         * {@link #onStderrLine(LineConsumer)}.
+         * This can be combined with {@link #to(List)}; lines will be delivered to both.
+         * @param consumer the consumer of STDOUT. Pass {@code null} to stop streaming.
+         * @return this Job object for chaining of calls.
+         */
+        public Job onLine(@Nullable LineConsumer consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stream output of STDOUT to a consumer line by line with a bounded buffer.
+         * <p>
+         * Same as {@link #onLine(LineConsumer)}, but the consumer runs in a separate thread.
+         * Up to {@code bufferSize} lines are queued for the consumer; once the buffer is full,
+         * reading outputs pauses until the consumer catches up. The job completes after all
+         * buffered lines are consumed, so the same restriction on waiting for jobs running
+         * in the same shell applies.
+         * @param consumer the consumer of STDOUT. Pass {@code null} to stop streaming.
+         * @param bufferSize the maximum number of lines waiting to be consumed.
+         * @return this Job object for chaining of calls.
+         */
+        public Job onLine(@Nullable LineConsumer consumer, int bufferSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stream output of STDERR to a consumer line by line.
+         * @param consumer the consumer of STDERR. Pass {@code null} to stop streaming.
+         * @return this Job object for chaining of calls.
+         * @see #onLine(LineConsumer)
+         */
+        public Job onStderrLine(@Nullable LineConsumer consumer) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Stream output of STDERR to a consumer line by line with a bounded buffer.
+         * @param consumer the consumer of STDERR. Pass {@code null} to stop streaming.
+         * @param bufferSize the maximum number of lines waiting to be consumed.
+         * @return this Job object for chaining of calls.
+         * @see #onLine(LineConsumer, int)
+         */
+        public Job onStderrLine(@Nullable LineConsumer consumer, int bufferSize) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Set the priority of the job.
+         * <p>
+         * Jobs waiting for the same shell are scheduled according to their priorities: a job
+         * overtakes queued jobs with lower priorities. To avoid starvation, a job cannot be
+         * overtaken anymore after it has waited long enough (200ms for
+         * {@link #PRIORITY_NORMAL} and 2 seconds for {@link #PRIORITY_BULK} jobs).
+         * Jobs that are already running are never preempted.
+         * <p>
+         * The default priority is {@link #PRIORITY_NORMAL}.
+         * @param priority either {@link #PRIORITY_INTERACTIVE}, {@link #PRIORITY_NORMAL},
+         *                 or {@link #PRIORITY_BULK}.
+         * @return this Job object for chaining of calls.
+         */
+        public Job priority(int priority) {
+            return this;
+        }
+
+        /**
+         * Set a deadline for the job.
+         * <p>
+         * When the deadline expires, all processes started by the job are killed, and the
+         * result code will be {@link Result#JOB_TIMEOUT}. The shell itself is not affected and
+         * can be reused for later jobs.
+         * <p>
+         * To be able to kill it, a job with a timeout runs as a background subshell:
+         * changes to the shell environment (e.g. {@code cd}, variables, functions) do not
+         * persist after the job, and its STDIN is {@code /dev/null}. Processes stuck in
+         * uninterruptible sleep cannot be killed and will still block the shell.
+         * @param timeout the maximum time to run the job. Pass 0 to disable the timeout.
+         * @param unit the time unit of {@code timeout}.
+         * @return this Job object for chaining of calls.
+         */
+        public Job timeout(long timeout, @NonNull TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Limit the number of lines stored for each of STDOUT and STDERR.
+         * <p>
+         * Once the limit is reached, lines are dropped according to
+         * {@link #outputOverflow(int)}, and the result will report {@link Result#isTruncated()}.
+         * Limits only apply to outputs stored in lists; callbacks set with
+         * {@link #onLine(Shell.LineConsumer)} still receive every line, and
+         * {@link #toStream(OutputStream)} is not affected.
+         * @param lines the maximum number of lines. Pass 0 to disable the limit.
+         * @return this Job object for chaining of calls.
+         */
+        public Job maxOutputLines(int lines) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Limit the number of bytes stored for each of STDOUT and STDERR, including line breaks.
+         * @param bytes the maximum number of bytes. Pass 0 to disable the limit.
+         * @return this Job object for chaining of calls.
+         * @see #maxOutputLines(int)
+         */
+        public Job maxOutputBytes(long bytes) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Set what happens when outputs exceed the limits set with {@link #maxOutputLines(int)}
+         * or {@link #maxOutputBytes(long)}.
+         * <p>
+         * With {@link #OVERFLOW_KEEP_TAIL}, the latest lines are kept in a ring buffer, so
+         * memory usage stays bounded no matter how much the job outputs.
+         * With {@link #OVERFLOW_ABORT}, the commands are piped through {@code head} in the shell,
+         * so the job is killed by {@code SIGPIPE} as soon as its STDOUT exceeds the limits and
+         * the result code will be {@link Result#JOB_ABORTED}. Just like
+         * {@link #timeout(long, TimeUnit)}, the commands then run in a subshell and changes to
+         * the shell environment do not persist. STDERR is never aborted and keeps its head.
+         * <p>
+         * The default policy is {@link #OVERFLOW_KEEP_HEAD}.
+         * @param policy {@link #OVERFLOW_KEEP_HEAD}, {@link #OVERFLOW_KEEP_TAIL},
+         *               or {@link #OVERFLOW_ABORT}.
+         * @return this Job object for chaining of calls.
+         */
+        public Job outputOverflow(int policy) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Mark the job as idempotent: it only reads state and never changes it.
+         * <p>
+         * While an identical idempotent job is waiting to be sent to the shell, this job does not
+         * run on its own, but shares the execution and the {@link Result} of that job.
+         * Jobs that were already sent to the shell are never joined, so a job always observes
+         * the changes made by its caller before it was started.
+         * Jobs are identical if they run the same commands in the same shell (or in the global
+         * pool for {@link #su(String...)} and {@link #sh(String...)}), and collect the same
+         * outputs. Every job gets its own {@link Result}; outputs of the shared execution are
+         * copied into the lists set with {@link #to(List)} or {@link #to(List, List)}.
+         * <p>
+         * This has no effect on jobs with operations serving an {@link InputStream}, line
+         * consumers, raw output streams, timeouts or output limits; they always run on their own.
+         * A shared execution cannot be cancelled through the {@link ResultFuture} of a single
+         * caller, cancelling only detaches that caller from it.
+         * @return this Job object for chaining of calls.
+         */
+        public Job idempotent() {
+            return this;
+        }
+
+        /**
+         * Cache the result of the job for a period of time.
+         * <p>
+         * If an identical job finished less than {@code ttl} ago, this job does not run at all,
+         * and returns a copy of the cached result instead. The job is also marked as
+         * {@link #idempotent()}, the same rules apply to decide whether jobs are identical and
+         * whether the job can be cached at all. Results of jobs that did not run
+         * (e.g. the shell is dead) are never cached.
+         * <p>
+         * The cache is bounded, the least recently used results are dropped first.
+         * Use {@link Shell#invalidateCache(String)} to drop results that are known to be stale.
+         * @param ttl how long the result stays valid.
+         * @param unit the time unit of {@code ttl}.
+         * @return this Job object for chaining of calls.
+         * @see Config#setCacheSize(int)
+         */
+        public Job cache(long ttl, @NonNull TimeUnit unit) {
+            return this;
+        }
+
         /**
          * Add a new operation running commands.
          * @param cmds the commands to run.
@@ -613,6 +1286,20 @@ public abstract class Shell implements Closeable {
          */
         public abstract Job add(String... cmds);
 
+        /**
+         * Add a new operation running a prepared command.
+         * <p>
+         * The static parts of the command are encoded only once when the command is prepared,
+         * and arguments are encoded straight into the shell input when the job runs.
+         * @param cmd the prepared command.
+         * @param args the arguments filling the parameter slots of the command.
+         * @return this Job object for chaining of calls.
+         * @throws IllegalArgumentException if an argument is missing or {@code null}.
+         */
+        public Job add(@NonNull PreparedCommand cmd, String... args) {
+            return add(cmd.format(args));
+        }
+
         /**
          * Add a new operation serving an InputStream to STDIN.
          * @param in the InputStream to serve to STDIN.
@@ -634,10 +1321,103 @@ public abstract class Shell implements Closeable {
 
         /**
          * Submit the job to an internal queue to run in the background.
-         * The result will be returned to the callback, running in the main thread.
+         * The result will be returned to the callback, running in the main thread
+         * (or the executor set with {@link Config#setCallbackExecutor(Executor)}).
          * @param cb the callback to receive the result of the job.
          */
         public abstract void submit(ResultCallback cb);
+
+        /**
+         * Submit the job to an internal queue to run in the background, and return a future
+         * representing its result.
+         * Callbacks registered with {@link ResultFuture#whenDone(ResultCallback)} run in
+         * {@link #EXECUTOR}.
+         * @return a {@link ResultFuture} of the job.
+         */
+        public ResultFuture enqueue() {
+            return enqueue(EXECUTOR);
+        }
+
+        /**
+         * Submit the job to an internal queue to run in the background, and return a future
+         * representing its result.
+         * @param executor the executor to run callbacks registered with
+         *                 {@link ResultFuture#whenDone(ResultCallback)}.
+         * @return a {@link ResultFuture} of the job.
+         */
+        public ResultFuture enqueue(@NonNull Executor executor) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A command template compiled once with {@link Shell#prepare(String)}, and run
+     * with different arguments using {@link Job#add(PreparedCommand, String...)}.
+     * <p>
+     * This saves formatting, quoting and encoding the command on each run, which matters
+     * for commands running in tight loops, e.g. polling the state of a file.
+     */
+    public abstract static class PreparedCommand {
+
+        /**
+         * @return the template the command was compiled from.
+         */
+        @NonNull
+        public abstract String getTemplate();
+
+        /**
+         * @return the number of arguments the command requires.
+         */
+        public abstract int getArgCount();
+
+        /**
+         * Fill the parameter slots of the command.
+         * @param args the arguments filling the parameter slots of the command.
+         * @return the command with each argument quoted as a single word.
+         * @throws IllegalArgumentException if an argument is missing or {@code null}.
+         */
+        @NonNull
+        public abstract String format(String... args);
+    }
+
+    /**
+     * Represents a batch of independent commands that are sent to the shell in a single
+     * round-trip, while still producing a separate {@link Result} for each command.
+     * <p>
+     * This is much faster than running each command as its own {@link Job} when a lot of
+     * short commands have to be run, e.g. a series of file checks. Commands run in the order
+     * of addition in the same shell environment, just like running them with separate jobs.
+     */
+    public abstract static class Batch {
+
+        /**
+         * Add a new command to the batch.
+         * <p>
+         * Multiple strings passed in the same call are treated as a single command:
+         * they will share a single {@link Result}.
+         * @param cmds the command to run.
+         * @return this Batch object for chaining of calls.
+         */
+        public abstract Batch add(String... cmds);
+
+        /**
+         * Set the priority of the batch.
+         * @param priority either {@link #PRIORITY_INTERACTIVE}, {@link #PRIORITY_NORMAL},
+         *                 or {@link #PRIORITY_BULK}.
+         * @return this Batch object for chaining of calls.
+         * @see Job#priority(int)
+         */
+        public abstract Batch priority(int priority);
+
+        /**
+         * Execute all commands in the batch immediately and return the results.
+         * <p>
+         * If a command terminates the shell or the batch fails to execute, the results of
+         * the commands that did not complete will have the code {@link Result#JOB_NOT_EXECUTED}.
+         * @return a list of results in the order the commands are added.
+         */
+        @NonNull
+        public abstract List<Result> exec();
     }
 
     /**
@@ -665,6 +1445,64 @@ public abstract class Shell implements Closeable {
         public boolean onInit(Context context, @NonNull Shell shell) { return true; }
     }
 
+    /**
+     * The listener of the lifecycle of jobs and shells, for tracing.
+     * <p>
+     * Extend this class, override the events of interest, and register it with
+     * {@link Config#setJobListener(JobListener)}. The callbacks run synchronously in the
+     * threads that drive the jobs, sometimes while holding internal locks of a shell,
+     * so they should return quickly and never run jobs themselves.
+     * Exceptions thrown in the callbacks are ignored.
+     */
+    public static class JobListener {
+
+        /**
+         * Called when a job is executed, submitted, or enqueued.
+         * <p>
+         * If the shell running a job created with the high level APIs dies, the job is
+         * finished with the error result and enqueued again on a new shell.
+         * @param job the job.
+         */
+        public void onEnqueued(@NonNull Job job) {}
+
+        /**
+         * Called when a shell starts running a job.
+         * @param job the job.
+         * @param shell the shell running the job.
+         */
+        public void onStarted(@NonNull Job job, @NonNull Shell shell) {}
+
+        /**
+         * Called when a job is done, including jobs that failed to run.
+         * @param job the job.
+         * @param result the result of the job.
+         * @param queueNanos the time the job waited before running in nanoseconds.
+         * @param execNanos the time the job was running in nanoseconds, 0 if it never started.
+         */
+        public void onFinished(@NonNull Job job, @NonNull Result result,
+                               long queueNanos, long execNanos) {}
+
+        /**
+         * Called when a new shell is constructed.
+         * @param shell the new shell.
+         * @param spawnNanos the time to construct the shell in nanoseconds.
+         */
+        public void onShellCreated(@NonNull Shell shell, long spawnNanos) {}
+
+        /**
+         * Called when the global shell is constructed again after the previous one was
+         * closed or died.
+         * @param shell the new global shell.
+         */
+        public void onShellRespawned(@NonNull Shell shell) {}
+
+        /**
+         * Called when a shell is closed or found dead.
+         * @param shell the closed shell.
+         */
+        public void onShellClosed(@NonNull Shell shell) {}
+    }
+
     /**
      * The callback used in {@link #getShell(GetShellCallback)}.
      */
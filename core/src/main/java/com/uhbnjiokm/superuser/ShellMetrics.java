@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime metrics of all shells and jobs in {@code libsu}.
+ * <p>
+ * Use these numbers to tell whether slowness comes from jobs waiting for a busy shell,
+ * from constructing shells, or from the commands themselves. All durations are recorded in
+ * nanoseconds into {@link Histogram}s. Recording never allocates memory, so metrics are
+ * always enabled.
+ * <p>
+ * Get the global instance with {@link Shell#getMetrics()}. Values are cumulative since
+ * the process started or the last call to {@link #reset()}; use {@link #snapshot(boolean)}
+ * to get a consistent copy that does not change anymore.
+ */
+public abstract class ShellMetrics {
+
+    /**
+     * Get the time jobs spent waiting before running in a shell.
+     * <p>
+     * The wait starts when the job is executed or submitted, and ends when the shell starts
+     * running it. It includes waiting for a shell from the {@link ShellPool}, and waiting for
+     * other jobs queued in the same shell.
+     * @return the histogram of queue wait times in nanoseconds.
+     */
+    @NonNull
+    public abstract Histogram getQueueWait();
+
+    /**
+     * Get the time jobs spent running in a shell, until all of their outputs were read.
+     * @return the histogram of execution times in nanoseconds.
+     */
+    @NonNull
+    public abstract Histogram getExecTime();
+
+    /**
+     * Get the time to construct new shells, including the root permission request
+     * if the shell is a root shell.
+     * @return the histogram of shell construction times in nanoseconds.
+     */
+    @NonNull
+    public abstract Histogram getSpawnTime();
+
+    /**
+     * @return the number of jobs that finished running in a shell.
+     */
+    public abstract long getJobCount();
+
+    /**
+     * @return the number of lines read from STDOUT and STDERR of jobs.
+     */
+    public abstract long getOutputLines();
+
+    /**
+     * @return the number of bytes read from STDOUT and STDERR of jobs, including line breaks.
+     */
+    public abstract long getOutputBytes();
+
+    /**
+     * @return the number of shells successfully constructed.
+     */
+    public abstract long getSpawnCount();
+
+    /**
+     * @return the number of times the global shell was constructed again after
+     * the previous one was closed or died.
+     */
+    public abstract long getRespawnCount();
+
+    /**
+     * @return the number of I/O operations done in shells by {@code libsu-io}.
+     */
+    public abstract long getIOOps();
+
+    /**
+     * @return the number of bytes read from files by {@code libsu-io} through shells.
+     */
+    public abstract long getIOReadBytes();
+
+    /**
+     * @return the number of bytes written to files by {@code libsu-io} through shells.
+     */
+    public abstract long getIOWriteBytes();
+
+    /**
+     * @return the number of jobs answered from the result cache without running.
+     * @see Shell.Job#cache(long, TimeUnit)
+     */
+    public abstract long getCacheHits();
+
+    /**
+     * @return the number of cacheable jobs that had to run because no valid result was cached.
+     */
+    public abstract long getCacheMisses();
+
+    /**
+     * Copy the current values of all metrics.
+     * @param reset whether to also reset all metrics after copying.
+     * @return a copy of the metrics that will never change.
+     */
+    @NonNull
+    public abstract ShellMetrics snapshot(boolean reset);
+
+    /**
+     * Reset all metrics to zero.
+     */
+    public abstract void reset();
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "jobs=" + getJobCount() +
+                " queue={" + getQueueWait() + "}" +
+                " exec={" + getExecTime() + "}" +
+                " out=" + getOutputLines() + "L/" + getOutputBytes() + "B" +
+                " spawn={" + getSpawnTime() + "}" +
+                " respawn=" + getRespawnCount() +
+                " io=" + getIOOps() + "ops/" + getIOReadBytes() + "R/" + getIOWriteBytes() + "W" +
+                " cache=" + getCacheHits() + "hit/" + getCacheMisses() + "miss";
+    }
+
+    /**
+     * A histogram of non-negative values with bounded relative error.
+     * <p>
+     * Values are counted in log-linear buckets: each power of two is split into 16 linear
+     * sub-buckets, so any reported value is within 1/16 (6.25%) of the recorded values.
+     * The whole range of {@code long} is covered with a fixed amount of memory, and
+     * {@link #record(long)} is lock-free and allocation-free.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private static int index(long v) {
+            if (v < SUB_COUNT)
+                return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return ((shift + 1) << SUB_BITS) + (int) ((v >>> shift) & (SUB_COUNT - 1));
+        }
+
+        private static long highest(int index) {
+            if (index < SUB_COUNT)
+                return index;
+            int shift = (index >>> SUB_BITS) - 1;
+            long low = (long) (SUB_COUNT + (index & (SUB_COUNT - 1))) << shift;
+            return low + (1L << shift) - 1;
+        }
+
+        /**
+         * Record a value. Negative values are recorded as 0.
+         * @param value the value to record.
+         */
+        public void record(long value) {
+            if (value < 0)
+                value = 0;
+            counts.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value));
+        }
+
+        /**
+         * @return the number of recorded values.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the largest recorded value, or 0 if nothing was recorded.
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the mean of recorded values, or 0 if nothing was recorded.
+         */
+        public double getMean() {
+            long c = count.get();
+            return c == 0 ? 0 : (double) sum.get() / c;
+        }
+
+        /**
+         * Get the value at a given percentile.
+         * @param percentile the percentile in the range [0, 100].
+         * @return a value such that {@code percentile}% of recorded values are less than or
+         * equal to it, or 0 if nothing was recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; ++i)
+                total += counts.get(i);
+            if (total == 0)
+                return 0;
+            long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += counts.get(i);
+                if (seen >= target)
+                    return Math.min(highest(i), getMax());
+            }
+            return getMax();
+        }
+
+        /**
+         * Copy the recorded values into a new histogram.
+         * @param reset whether to also clear this histogram. Values recorded concurrently
+         *              are never lost: they end up in either the copy or this histogram.
+         * @return a new histogram containing the recorded values.
+         */
+        @NonNull
+        public Histogram copy(boolean reset) {
+            Histogram h = new Histogram();
+            for (int i = 0; i < BUCKETS; ++i)
+                h.counts.set(i, reset ? counts.getAndSet(i, 0) : counts.get(i));
+            h.count.set(reset ? count.getAndSet(0) : count.get());
+            h.sum.set(reset ? sum.getAndSet(0) : sum.get());
+            h.max.set(reset ? max.getAndSet(0) : max.get());
+            return h;
+        }
+
+        /**
+         * Clear all recorded values.
+         */
+        public void reset() {
+            copy(true);
+        }
+
+        /**
+         * @return a summary of the histogram, assuming values are nanoseconds.
+         */
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                    getCount(), getMean() / TimeUnit.MILLISECONDS.toNanos(1),
+                    ms(getValueAtPercentile(50)), ms(getValueAtPercentile(90)),
+                    ms(getValueAtPercentile(99)), ms(getMax()));
+        }
+
+        private static double ms(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
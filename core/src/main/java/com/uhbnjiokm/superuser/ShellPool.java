@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.internal.InternalUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of {@link Shell} instances that allows multiple jobs to run in parallel.
+ * <p>
+ * The global shell returned by {@link Shell#getShell()} is always a member of the pool.
+ * When every member is busy and the pool has not reached its maximum size, an additional
+ * shell is constructed with {@link Shell#newInstance()} in the background.
+ * Additional shells that stay idle for longer than the keep-alive time are closed until
+ * the pool shrinks back to its minimum size.
+ * <p>
+ * The high level APIs ({@link Shell#su(String...)}, {@link Shell#sh(String...)} and friends)
+ * automatically dispatch jobs to the least loaded shell of the global pool. Configure its
+ * bounds with {@link Shell.Config#setPoolSize(int, int)}; the default pool contains only
+ * the global shell, which behaves exactly the same as not using a pool at all.
+ */
+public final class ShellPool {
+
+    private static final String TAG = "SHELLPOOL";
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int minShells = 1;
+    private int maxShells = 1;
+    private long keepAlive = TimeUnit.SECONDS.toMillis(30);
+    private int spawning = 0;
+    private long spawnFailed = 0;
+    private boolean reaping = false;
+
+    private static class Entry {
+        final Shell shell;
+        int load;
+        long lastUsed;
+
+        Entry(Shell s) {
+            shell = s;
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    ShellPool() {}
+
+    synchronized void setBounds(int min, int max, long keepAliveMs) {
+        if (min < 1 || max < min)
+            throw new IllegalArgumentException("Invalid pool size: [" + min + ", " + max + "]");
+        minShells = min;
+        maxShells = max;
+        keepAlive = keepAliveMs;
+    }
+
+    /**
+     * Get the least loaded shell in the pool.
+     * <p>
+     * If all shells in the pool are busy and the pool has not reached its maximum size,
+     * a new shell is constructed in the background and joins the pool once it is ready;
+     * the current call still returns the least loaded existing shell.
+     * This method only blocks when the global shell itself has to be constructed, so it
+     * should not be called on the main thread. Every call to this method shall be paired with
+     * {@link #release(Shell)} after the caller is done with the shell, or the pool
+     * will consider the shell to be busy forever.
+     * @return the least loaded {@code Shell} instance in the pool.
+     * @throws NoShellException impossible to construct the global shell.
+     */
+    @NonNull
+    public Shell acquire() {
+        // Resolve the global shell outside of our lock, it might need to be constructed
+        Shell main = Shell.getShell();
+        synchronized (this) {
+            prune(main);
+            Entry best = null;
+            for (Entry e : entries) {
+                if (best == null || e.load < best.load)
+                    best = e;
+            }
+            /* assert best != null, the global shell is always in the pool */
+            if (best.load > 0 && canGrow()) {
+                // All shells are busy, construct a new one without blocking the caller
+                ++spawning;
+                int status = main.getStatus();
+                Shell.EXECUTOR.execute(() -> grow(status));
+            }
+            ++best.load;
+            return best.shell;
+        }
+    }
+
+    /**
+     * Return a shell acquired with {@link #acquire()} back to the pool.
+     * @param shell the shell returned by {@link #acquire()}.
+     */
+    public synchronized void release(@NonNull Shell shell) {
+        for (Entry e : entries) {
+            if (e.shell == shell) {
+                if (e.load > 0)
+                    --e.load;
+                e.lastUsed = System.currentTimeMillis();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the number of shells currently in the pool.
+     * @return the number of shells, including the global shell.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the number of jobs that are currently running or queued in the pool.
+     * @return the total load of all shells in the pool.
+     */
+    public synchronized int getLoad() {
+        int load = 0;
+        for (Entry e : entries)
+            load += e.load;
+        return load;
+    }
+
+    /**
+     * Close all additional shells in the pool.
+     * <p>
+     * The global shell is not closed; use {@link Shell#close()} on the global shell directly.
+     */
+    public void closeAll() {
+        List<Shell> closing = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+                Entry e = it.next();
+                if (e.shell != Shell.getCachedShell()) {
+                    closing.add(e.shell);
+                    it.remove();
+                }
+            }
+        }
+        for (Shell s : closing)
+            closeQuietly(s);
+    }
+
+    private void prune(Shell main) {
+        boolean hasMain = false;
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+            Entry e = it.next();
+            if (!e.shell.isAlive()) {
+                it.remove();
+            } else if (e.shell == main) {
+                hasMain = true;
+            }
+        }
+        if (!hasMain)
+            entries.add(0, new Entry(main));
+    }
+
+    private boolean canGrow() {
+        if (entries.size() + spawning >= maxShells)
+            return false;
+        // Do not retry spawning too frequently if it failed recently
+        return System.currentTimeMillis() - spawnFailed >= keepAlive;
+    }
+
+    private void grow(int status) {
+        Shell shell = spawn(status);
+        synchronized (this) {
+            --spawning;
+            if (shell != null) {
+                entries.add(new Entry(shell));
+                startReaper();
+            } else {
+                spawnFailed = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private Shell spawn(int status) {
+        try {
+            InternalUtils.log(TAG, "spawn shell");
+            Shell shell = Shell.newInstance();
+            if (shell.getStatus() == status)
+                return shell;
+            // Never mix shells with different privileges in the same pool
+            closeQuietly(shell);
+        } catch (NoShellException e) {
+            InternalUtils.stackTrace(e);
+        }
+        return null;
+    }
+
+    private void startReaper() {
+        if (reaping)
+            return;
+        reaping = true;
+        Shell.EXECUTOR.execute(() -> {
+            for (;;) {
+                long wait;
+                synchronized (this) {
+                    wait = keepAlive;
+                }
+                try {
+                    Thread.sleep(Math.max(wait / 2, 1000));
+                } catch (InterruptedException e) {
+                    synchronized (this) {
+                        reaping = false;
+                    }
+                    return;
+                }
+                if (!reap())
+                    return;
+            }
+        });
+    }
+
+    /**
+     * Close idle additional shells.
+     * @return {@code true} if the reaper should keep running.
+     */
+    private boolean reap() {
+        List<Shell> closing = new ArrayList<>();
+        boolean keepRunning;
+        synchronized (this) {
+            Shell main = Shell.getCachedShell();
+            long now = System.currentTimeMillis();
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+                if (entries.size() <= minShells)
+                    break;
+                Entry e = it.next();
+                if (e.shell == main || e.load > 0)
+                    continue;
+                if (!e.shell.isAlive() || now - e.lastUsed >= keepAlive) {
+                    closing.add(e.shell);
+                    it.remove();
+                }
+            }
+            keepRunning = entries.size() > minShells;
+            if (!keepRunning)
+                reaping = false;
+        }
+        for (Shell s : closing) {
+            InternalUtils.log(TAG, "close idle shell");
+            closeQuietly(s);
+        }
+        return keepRunning;
+    }
+
+    private static void closeQuietly(Shell shell) {
+        try {
+            shell.close();
+        } catch (Exception ignored) {}
+    }
+}
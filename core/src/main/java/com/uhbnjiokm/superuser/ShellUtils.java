@@ -32,6 +32,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Some handy utility methods that are used in {@code libsu}.
@@ -121,6 +122,35 @@ public final class ShellUtils {
         return shell.newJob().add(cmds).exec().isSuccess();
     }
 
+    /**
+     * Run commands with the global shell and get a single line output,
+     * reusing the result of an identical call made less than {@code ttl} ago.
+     * @param ttl how long the result stays valid.
+     * @param unit the time unit of {@code ttl}.
+     * @param cmds the commands.
+     * @return the last line of the output of the command, empty string if no output is available.
+     * @see Shell.Job#cache(long, TimeUnit)
+     */
+    @NonNull
+    public static String cachedCmd(long ttl, TimeUnit unit, String... cmds) {
+        List<String> out = Shell.getShell().newJob().add(cmds).to(new ArrayList<>(), null)
+                .cache(ttl, unit).exec().getOut();
+        return isValidOutput(out) ? out.get(out.size() - 1) : "";
+    }
+
+    /**
+     * Run commands with the global shell and return whether returns 0 (success),
+     * reusing the result of an identical call made less than {@code ttl} ago.
+     * @param ttl how long the result stays valid.
+     * @param unit the time unit of {@code ttl}.
+     * @param cmds the commands.
+     * @return {@code true} if the commands succeed.
+     * @see Shell.Job#cache(long, TimeUnit)
+     */
+    public static boolean cachedCmdResult(long ttl, TimeUnit unit, String... cmds) {
+        return Shell.getShell().newJob().add(cmds).cache(ttl, unit).exec().isSuccess();
+    }
+
     /**
      * Pump all data from an {@link InputStream} to an {@link OutputStream}.
      * @param in source.
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.Shell;
+import com.uhbnjiokm.superuser.ShellUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class BatchImpl extends Shell.Batch {
+
+    private final Shell shell;
+    private final List<String[]> commands = new ArrayList<>();
+    private int priority = Shell.PRIORITY_NORMAL;
+
+    BatchImpl(Shell s) {
+        shell = s;
+    }
+
+    @Override
+    public Shell.Batch add(String... cmds) {
+        if (cmds != null && cmds.length > 0)
+            commands.add(cmds);
+        return this;
+    }
+
+    @Override
+    public Shell.Batch priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public List<Shell.Result> exec() {
+        int size = commands.size();
+        List<Shell.Result> results = new ArrayList<>(size);
+        if (size == 0)
+            return results;
+
+        // Each command is followed by a frame marking its end and carrying its return code
+        String marker = "__BATCH_" + ShellUtils.genRandomAlphaNumString(16) + ":";
+        String frame = "echo \"" + marker + "$?\";echo " + marker + " >&2\n";
+        StringBuilder script = new StringBuilder();
+        for (String[] cmds : commands) {
+            script.append("{\n");
+            for (String cmd : cmds)
+                script.append(cmd).append('\n');
+            script.append("}\n").append(frame);
+        }
+
+        List<String> out = new ArrayList<>();
+        List<String> err = new ArrayList<>();
+        shell.newJob().add(script.toString()).to(out, err).priority(priority).exec();
+
+        int o = 0, e = 0;
+        for (int i = 0; i < size; ++i) {
+            ResultImpl res = new ResultImpl();
+            res.out = new ArrayList<>();
+            res.err = new ArrayList<>();
+            o = split(out, o, marker, res.out);
+            e = split(err, e, marker, res.err);
+            if (o > 0 && o <= out.size())
+                res.code = parseCode(out.get(o - 1), marker);
+            results.add(res);
+        }
+        return results;
+    }
+
+    /**
+     * Move lines in {@code src} starting from {@code from} into {@code dest}
+     * until a frame is found.
+     * @return the index after the frame, or {@code src.size() + 1} if no frame is found.
+     */
+    private static int split(List<String> src, int from, String marker, List<String> dest) {
+        int size = src.size();
+        for (int i = from; i < size; ++i) {
+            String line = src.get(i);
+            int idx = line.lastIndexOf(marker);
+            if (idx >= 0) {
+                // The output of the command might not end with a newline
+                if (idx > 0)
+                    dest.add(line.substring(0, idx));
+                return i + 1;
+            }
+            dest.add(line);
+        }
+        return size + 1;
+    }
+
+    private static int parseCode(String frame, String marker) {
+        try {
+            return Integer.parseInt(frame.substring(frame.lastIndexOf(marker) + marker.length()));
+        } catch (NumberFormatException e) {
+            return Shell.Result.JOB_NOT_EXECUTED;
+        }
+    }
+}
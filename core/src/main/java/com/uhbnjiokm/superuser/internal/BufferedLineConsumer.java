@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.Shell;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link Shell.LineConsumer} that hands lines over to another consumer running in a
+ * separate thread through a bounded queue. Producers block when the queue is full.
+ */
+class BufferedLineConsumer implements Shell.LineConsumer, Runnable {
+
+    // Marks the end of a job, compared by identity
+    private static final String END = new String("");
+
+    private final Shell.LineConsumer base;
+    private final BlockingQueue<String> queue;
+    private boolean running = false;
+
+    BufferedLineConsumer(Shell.LineConsumer base, int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Invalid buffer size: " + size);
+        this.base = base;
+        queue = new ArrayBlockingQueue<>(size);
+    }
+
+    @Override
+    public void onLine(@NonNull String line) {
+        synchronized (this) {
+            if (!running) {
+                running = true;
+                Shell.EXECUTOR.execute(this);
+            }
+        }
+        try {
+            queue.put(line);
+        } catch (InterruptedException e) {
+            // The shell is closing, drop the line
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until all queued lines are consumed.
+     */
+    void finish() {
+        synchronized (this) {
+            if (!running)
+                return;
+        }
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                queue.put(END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        synchronized (this) {
+            while (running) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (;;) {
+                String line = queue.take();
+                if (line == END)
+                    break;
+                try {
+                    base.onLine(line);
+                } catch (RuntimeException e) {
+                    InternalUtils.stackTrace(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            queue.clear();
+        }
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+    }
+}
@@ -24,7 +24,12 @@ import java.io.InputStream;
 public final class Factory {
 
     public static Shell createShell(long timeout, String... cmd) throws IOException {
-        return new ShellImpl(timeout, cmd);
+        long start = System.nanoTime();
+        Shell shell = new ShellImpl(timeout, cmd);
+        long spawn = System.nanoTime() - start;
+        MetricsImpl.INSTANCE.shellSpawned(spawn);
+        JobEvents.shellCreated(shell, spawn);
+        return shell;
     }
 
     public static Shell.Job createJob(boolean su, InputStream in) {
@@ -34,4 +39,12 @@ public final class Factory {
     public static Shell.Job createJob(boolean su, String... cmds) {
         return new PendingJob(su).add(cmds);
     }
+
+    public static Shell.Batch createBatch(Shell shell) {
+        return new BatchImpl(shell);
+    }
+
+    public static Shell.PreparedCommand createPreparedCommand(String template) {
+        return new PreparedCommandImpl(template);
+    }
 }
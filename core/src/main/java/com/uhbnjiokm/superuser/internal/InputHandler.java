@@ -16,6 +16,7 @@
 
 package com.uhbnjiokm.superuser.internal;
 
+import com.uhbnjiokm.superuser.Shell;
 import com.uhbnjiokm.superuser.ShellUtils;
 
 import java.io.IOException;
@@ -28,6 +29,19 @@ interface InputHandler {
 
     void handleInput(OutputStream in) throws IOException;
 
+    /**
+     * Write commands preparing a specific shell for the job, before the job is started.
+     * They run outside of any subshell or redirection of the job, and must not print anything.
+     */
+    default void prepare(OutputStream in, ShellImpl shell) throws IOException {}
+
+    /**
+     * Write the input of a job into a specific shell, which may have state to shorten the input.
+     */
+    default void handleInput(OutputStream in, ShellImpl shell) throws IOException {
+        handleInput(in);
+    }
+
     static InputHandler newInstance(String... cmd) {
         return in -> {
             for (String command : cmd) {
@@ -39,6 +53,8 @@ interface InputHandler {
     }
 
     static InputHandler newInstance(InputStream is) {
+        if (InternalUtils.hasFlag(Shell.FLAG_CACHE_SCRIPTS))
+            return new ScriptCache.Handler(is);
         return in -> {
             InternalUtils.log(TAG, "<InputStream>");
             ShellUtils.noFlushPump(is, in);
@@ -21,6 +21,7 @@ import android.content.ContextWrapper;
 import android.util.Log;
 
 import com.uhbnjiokm.superuser.Shell;
+import com.uhbnjiokm.superuser.ShellUtils;
 
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
@@ -63,17 +64,26 @@ public final class InternalUtils {
 
     public static Context getContext() {
         if (weakContext == null || weakContext.get() == null) {
-            UiThreadHandler.runAndWait(() -> {
-                try {
-                    weakContext = new WeakReference<>((Context) currentApplication.invoke(null));
-                } catch (Exception e) {
-                    weakContext = new WeakReference<>(null);
-                }
-            });
+            Context c = currentApplication();
+            if (c == null && currentApplication != null && !ShellUtils.onMainThread()) {
+                // Old platforms only expose the application on the main thread
+                Context[] ctx = new Context[1];
+                UiThreadHandler.runAndWait(() -> ctx[0] = currentApplication());
+                c = ctx[0];
+            }
+            weakContext = new WeakReference<>(c);
         }
         return weakContext.get();
     }
 
+    private static Context currentApplication() {
+        try {
+            return (Context) currentApplication.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     public static void replaceBaseContext(ContextWrapper wrapper, Context base) {
         try {
             mBaseContext.set(wrapper, base);
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import com.uhbnjiokm.superuser.Shell;
+
+/**
+ * Dispatch events to the {@link Shell.JobListener}, isolating the library from its exceptions.
+ */
+public final class JobEvents {
+
+    private JobEvents() {}
+
+    static void enqueued(Shell.Job job) {
+        Shell.JobListener l = Shell.Config.getJobListener();
+        if (l == null)
+            return;
+        try {
+            l.onEnqueued(job);
+        } catch (RuntimeException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+
+    static void started(Shell.Job job, Shell shell) {
+        Shell.JobListener l = Shell.Config.getJobListener();
+        if (l == null || job == null)
+            return;
+        try {
+            l.onStarted(job, shell);
+        } catch (RuntimeException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+
+    /**
+     * @param queued the time the job was queued.
+     * @param started the time the job started running, 0 if it never started.
+     */
+    static void finished(Shell.Job job, Shell.Result result, long queued, long started) {
+        Shell.JobListener l = Shell.Config.getJobListener();
+        if (l == null)
+            return;
+        long now = System.nanoTime();
+        long queue = (started == 0 ? now : started) - queued;
+        long exec = started == 0 ? 0 : now - started;
+        try {
+            l.onFinished(job, result, queue, exec);
+        } catch (RuntimeException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+
+    static void shellCreated(Shell shell, long spawnNanos) {
+        Shell.JobListener l = Shell.Config.getJobListener();
+        if (l == null)
+            return;
+        try {
+            l.onShellCreated(shell, spawnNanos);
+        } catch (RuntimeException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+
+    public static void shellRespawned(Shell shell) {
+        Shell.JobListener l = Shell.Config.getJobListener();
+        if (l == null)
+            return;
+        try {
+            l.onShellRespawned(shell);
+        } catch (RuntimeException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+
+    static void shellClosed(Shell shell) {
+        Shell.JobListener l = Shell.Config.getJobListener();
+        if (l == null)
+            return;
+        try {
+            l.onShellClosed(shell);
+        } catch (RuntimeException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+}
@@ -16,19 +16,42 @@
 
 package com.uhbnjiokm.superuser.internal;
 
+import android.text.TextUtils;
+
 import com.uhbnjiokm.superuser.Shell;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 class JobImpl extends Shell.Job {
 
     private List<String> out, err;
+    private Shell.LineConsumer outLine, errLine;
+    private OutputStream rawOut;
     private List<InputHandler> handlers;
     protected ShellImpl shell;
     private boolean redirect = false;
+    private boolean lineRedirect = false;
+    private long timeout = 0;
+    protected int priority = Shell.PRIORITY_NORMAL;
+    private int maxLines = 0;
+    private long maxBytes = 0;
+    private int overflow = Shell.OVERFLOW_KEEP_HEAD;
+    private long queued = 0;
+    private boolean idempotent = false;
+    private long cacheTtl = 0;
+    private boolean streamed = false;
+    private ResultFutureImpl flight;
+    // Commands in flight keys, prepared commands are only rendered when needed
+    private final List<Object> commands = new ArrayList<>();
 
     JobImpl() {
         handlers = new ArrayList<>();
@@ -39,31 +62,197 @@ class JobImpl extends Shell.Job {
         shell = s;
     }
 
-    private Shell.Result exec0() {
+    private ResultImpl newResult() {
         if (out instanceof NOPList)
-            out = new ArrayList<>();
+            out = outLine == null ? new LineList() : null;
         ResultImpl result = new ResultImpl();
         result.out = out;
         result.err = redirect ? out : err;
-        Shell.Task task = shell.newTask(handlers, result);
+        result.outLine = outLine;
+        result.errLine = errLine == null && lineRedirect ? outLine : errLine;
+        result.rawOut = rawOut;
+        result.maxLines = maxLines;
+        result.maxBytes = maxBytes;
+        result.overflow = overflow;
+        result.queued = queued == 0 ? System.nanoTime() : queued;
+        result.job = this;
+        result.flight = flight;
+        queued = 0;
+        return result;
+    }
+
+    private void finish(ResultImpl result) {
+        // Wait for buffered consumers to catch up
+        if (outLine instanceof BufferedLineConsumer)
+            ((BufferedLineConsumer) outLine).finish();
+        if (errLine instanceof BufferedLineConsumer)
+            ((BufferedLineConsumer) errLine).finish();
+        if (redirect)
+            result.err = null;
+        if (result.out instanceof LineList)
+            ((LineList) result.out).trim();
+    }
+
+    private static Shell.Result error(IOException e) {
+        if (e instanceof ShellTerminatedException) {
+            return ResultImpl.SHELL_ERR;
+        } else {
+            InternalUtils.stackTrace(e);
+            return ResultImpl.INSTANCE;
+        }
+    }
+
+    Shell.Result exec0() {
+        ResultImpl result = newResult();
         try {
-            shell.execTask(task);
+            shell.runJob(handlers, timeout, priority, result);
         } catch (IOException e) {
-            if (e instanceof ShellTerminatedException) {
-                return ResultImpl.SHELL_ERR;
-            } else {
-                InternalUtils.stackTrace(e);
-                return ResultImpl.INSTANCE;
-            }
+            Shell.Result err = error(e);
+            JobEvents.finished(this, err, result.queued, result.started);
+            return err;
         }
-        if (redirect)
-            result.err = null;
+        result.await();
+        finish(result);
+        JobEvents.finished(this, result, result.queued, result.started);
         return result;
     }
 
+    /**
+     * Start the job and return the result to the callback once the job is done.
+     * The callback is invoked in the callback thread of the shell, or in the calling thread
+     * if the job is already done or fails to start.
+     */
+    void start0(Shell.ResultCallback cb) {
+        ResultImpl result = newResult();
+        try {
+            shell.runJob(handlers, timeout, priority, result);
+        } catch (IOException e) {
+            Shell.Result err = error(e);
+            JobEvents.finished(this, err, result.queued, result.started);
+            cb.onResult(err);
+            return;
+        }
+        result.whenDone(() -> {
+            finish(result);
+            JobEvents.finished(this, result, result.queued, result.started);
+            cb.onResult(result);
+        }, shell.callbackExecutor);
+    }
+
+    /**
+     * Mark the time the job is queued, if not already marked by an outer entry point.
+     */
+    void markQueued() {
+        if (queued == 0) {
+            queued = System.nanoTime();
+            JobEvents.enqueued(this);
+        }
+    }
+
+    /**
+     * Finish a queued job with a result it did not run for, either because it cannot run in
+     * any shell, or because it shared the execution of an identical job.
+     */
+    Shell.Result report(Shell.Result result) {
+        JobEvents.finished(this, result, queued, 0);
+        queued = 0;
+        return result;
+    }
+
+    /**
+     * Run the job in the current thread.
+     */
+    Shell.Result execJob() {
+        return exec0();
+    }
+
+    /**
+     * Schedule the job and complete the future once the job is done.
+     */
+    void startJob(ResultFutureImpl future) {
+        Runnable task = new PriorityTask(priority, () -> {
+            if (future.start())
+                start0(future::complete);
+        });
+        future.setTask(shell.SERIAL_EXECUTOR, task);
+        shell.SERIAL_EXECUTOR.execute(task);
+    }
+
+    /**
+     * The shell or pool identical jobs have to share.
+     * @return {@code null} if the job cannot be shared.
+     */
+    Object flightScope() {
+        return shell;
+    }
+
+    private SingleFlight.Key flightKey() {
+        if (!idempotent || streamed || commands.isEmpty() || outLine != null || errLine != null
+                || rawOut != null || timeout > 0 || maxLines > 0 || maxBytes > 0)
+            return null;
+        Object scope = flightScope();
+        if (scope == null)
+            return null;
+        int outputs = (out != null ? 1 : 0) | (err != null ? 2 : 0) | (redirect ? 4 : 0);
+        return new SingleFlight.Key(scope, outputs, TextUtils.join("\n", commands));
+    }
+
+    private ResultFutureImpl newFlight(SingleFlight.Key key) {
+        ResultFutureImpl flight = new ResultFutureImpl(Runnable::run);
+        if (cacheTtl > 0) {
+            long ttl = cacheTtl;
+            flight.whenDone(res -> ResultCache.put(key, res, ttl));
+        }
+        return flight;
+    }
+
+    /**
+     * Take the result of an identical job that shared its execution, or a cached result.
+     */
+    private Shell.Result share(Shell.Result result) {
+        if (result == ResultImpl.INSTANCE || result == ResultImpl.SHELL_ERR)
+            return report(result);
+        // Never hand out the lists of the job in flight, every caller gets its own copy
+        ResultImpl res = new ResultImpl();
+        res.code = result.getCode();
+        res.job = this;
+        if (out != null) {
+            res.out = out instanceof NOPList ? new ArrayList<>() : out;
+            res.out.addAll(result.getOut());
+        }
+        if (err != null && !redirect) {
+            res.err = err;
+            res.err.addAll(result.getErr());
+        }
+        return report(res);
+    }
+
     @Override
     public Shell.Result exec() {
-        return exec0();
+        markQueued();
+        SingleFlight.Key key = flightKey();
+        if (key == null)
+            return execJob();
+        Shell.Result cached = cacheTtl > 0 ? ResultCache.get(key) : null;
+        if (cached != null)
+            return share(cached);
+        ResultFutureImpl flight = newFlight(key);
+        ResultFutureImpl joined = SingleFlight.join(key, flight);
+        if (joined == flight) {
+            this.flight = flight;
+            Shell.Result res = ResultImpl.INSTANCE;
+            try {
+                res = execJob();
+            } finally {
+                flight.complete(res);
+            }
+            return res;
+        }
+        try {
+            return share(joined.get());
+        } catch (InterruptedException e) {
+            return report(ResultImpl.INSTANCE);
+        }
     }
 
     @Override
@@ -75,16 +264,52 @@ class JobImpl extends Shell.Job {
     public void submit(Shell.ResultCallback cb) {
         if (out instanceof NOPList && cb == null)
             out = null;
-        shell.SERIAL_EXECUTOR.execute(() -> {
-            Shell.Result result = exec0();
-            if (cb != null)
-                UiThreadHandler.run(() -> cb.onResult(result));
-        });
+        ResultFutureImpl future = new ResultFutureImpl(UiThreadHandler::run);
+        if (cb != null)
+            future.whenDone(cb);
+        start(future);
+    }
+
+    @Override
+    public Shell.ResultFuture enqueue() {
+        return enqueue(Shell.EXECUTOR);
+    }
+
+    @Override
+    public Shell.ResultFuture enqueue(Executor executor) {
+        ResultFutureImpl future = new ResultFutureImpl(executor);
+        start(future);
+        return future;
+    }
+
+    private void start(ResultFutureImpl future) {
+        markQueued();
+        SingleFlight.Key key = flightKey();
+        if (key == null) {
+            startJob(future);
+            return;
+        }
+        Shell.Result cached = cacheTtl > 0 ? ResultCache.get(key) : null;
+        if (cached != null) {
+            future.complete(share(cached));
+            return;
+        }
+        ResultFutureImpl flight = newFlight(key);
+        ResultFutureImpl joined = SingleFlight.join(key, flight);
+        if (joined == flight) {
+            // The caller only observes the shared execution, cancelling it detaches the caller
+            this.flight = flight;
+            startJob(flight);
+            flight.whenDone(future::complete);
+        } else {
+            joined.whenDone(res -> future.complete(share(res)));
+        }
     }
 
     @Override
     public Shell.Job to(List<String> output) {
         out = output;
+        rawOut = null;
         redirect = InternalUtils.hasFlag(Shell.FLAG_REDIRECT_STDERR);
         return this;
     }
@@ -93,21 +318,116 @@ class JobImpl extends Shell.Job {
     public Shell.Job to(List<String> stdout, List<String> stderr) {
         out = stdout;
         err = stderr;
+        rawOut = null;
+        redirect = false;
+        return this;
+    }
+
+    @Override
+    public Shell.Job toStream(OutputStream stdout) {
+        rawOut = stdout;
+        out = null;
+        outLine = null;
         redirect = false;
+        lineRedirect = false;
+        return this;
+    }
+
+    @Override
+    public Shell.Job toChannel(WritableByteChannel stdout) {
+        return toStream(Channels.newOutputStream(stdout));
+    }
+
+    @Override
+    public Shell.Job onLine(Shell.LineConsumer consumer) {
+        outLine = consumer;
+        rawOut = null;
+        lineRedirect = InternalUtils.hasFlag(Shell.FLAG_REDIRECT_STDERR);
+        return this;
+    }
+
+    @Override
+    public Shell.Job onLine(Shell.LineConsumer consumer, int bufferSize) {
+        return onLine(consumer == null ? null : new BufferedLineConsumer(consumer, bufferSize));
+    }
+
+    @Override
+    public Shell.Job onStderrLine(Shell.LineConsumer consumer) {
+        errLine = consumer;
+        return this;
+    }
+
+    @Override
+    public Shell.Job onStderrLine(Shell.LineConsumer consumer, int bufferSize) {
+        return onStderrLine(consumer == null ? null : new BufferedLineConsumer(consumer, bufferSize));
+    }
+
+    @Override
+    public Shell.Job priority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    @Override
+    public Shell.Job timeout(long timeout, TimeUnit unit) {
+        this.timeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    @Override
+    public Shell.Job maxOutputLines(int lines) {
+        maxLines = Math.max(lines, 0);
+        return this;
+    }
+
+    @Override
+    public Shell.Job maxOutputBytes(long bytes) {
+        maxBytes = Math.max(bytes, 0);
+        return this;
+    }
+
+    @Override
+    public Shell.Job outputOverflow(int policy) {
+        overflow = policy;
+        return this;
+    }
+
+    @Override
+    public Shell.Job idempotent() {
+        idempotent = true;
+        return this;
+    }
+
+    @Override
+    public Shell.Job cache(long ttl, TimeUnit unit) {
+        cacheTtl = unit.toNanos(ttl);
+        idempotent = true;
+        return this;
+    }
+
+    @Override
+    public Shell.Job add(Shell.PreparedCommand cmd, String... args) {
+        InputHandler handler = ((PreparedCommandImpl) cmd).bind(args);
+        handlers.add(handler);
+        commands.add(handler);
         return this;
     }
 
     @Override
     public Shell.Job add(InputStream in) {
-        if (in != null)
+        if (in != null) {
             handlers.add(InputHandler.newInstance(in));
+            streamed = true;
+        }
         return this;
     }
 
     @Override
     public Shell.Job add(String... cmds) {
-        if (cmds != null && cmds.length > 0)
+        if (cmds != null && cmds.length > 0) {
             handlers.add(InputHandler.newInstance(cmds));
+            Collections.addAll(commands, cmds);
+        }
         return this;
     }
 
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact list of lines backed by UTF-8 byte chunks and an array of offsets.
+ * <p>
+ * Lines are stored as raw bytes as they come out of the shell, and only decoded into
+ * {@link String}s when requested. Appending is the only operation done in-place;
+ * any other modification inflates the list into a regular {@link ArrayList} first, so the list
+ * still behaves as a fully mutable {@link List}. All methods are synchronized.
+ * <p>
+ * Nothing is allocated until the first line is added. The chunks grow up to {@link #MAX_CHUNK}
+ * bytes and are never copied once full, so only the last chunk has to be copied to release
+ * unused capacity.
+ */
+class LineList extends AbstractList<String> implements RandomAccess {
+
+    private static final int MIN_CHUNK = 256;
+    private static final int MAX_CHUNK = 8192;
+
+    private byte[][] chunks;
+    // Offsets of each chunk in the virtual concatenation of all chunks
+    private int[] bases;
+    private int chunkCount = 0;
+    private int[] ends;
+    private int length = 0;
+    private int count = 0;
+    private List<String> inflated;
+
+    synchronized void addBytes(byte[] b, int off, int len) {
+        if (inflated != null) {
+            inflated.add(new String(b, off, len, LineScanner.UTF_8));
+            return;
+        }
+        if (ends == null)
+            ends = new int[16];
+        else if (count == ends.length)
+            ends = Arrays.copyOf(ends, count * 2);
+        if (len > 0) {
+            byte[] chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+            int used = chunkCount == 0 ? 0 : length - bases[chunkCount - 1];
+            if (chunk == null || chunk.length - used < len) {
+                // Lines never span across chunks
+                int size = chunk == null ? MIN_CHUNK : Math.min(chunk.length * 2, MAX_CHUNK);
+                chunk = newChunk(Math.max(size, len));
+                used = 0;
+            }
+            System.arraycopy(b, off, chunk, used, len);
+            length += len;
+        }
+        ends[count++] = length;
+        ++modCount;
+    }
+
+    private byte[] newChunk(int size) {
+        if (chunks == null) {
+            chunks = new byte[4][];
+            bases = new int[4];
+        } else if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            bases = Arrays.copyOf(bases, chunkCount * 2);
+        }
+        byte[] chunk = new byte[size];
+        chunks[chunkCount] = chunk;
+        bases[chunkCount++] = length;
+        return chunk;
+    }
+
+    /**
+     * Release unused capacity.
+     */
+    synchronized void trim() {
+        if (inflated != null || count == 0)
+            return;
+        if (ends.length > count)
+            ends = Arrays.copyOf(ends, count);
+        if (chunkCount == 0)
+            return;
+        int last = chunkCount - 1;
+        int used = length - bases[last];
+        if (chunks[last].length > used)
+            chunks[last] = Arrays.copyOf(chunks[last], used);
+    }
+
+    private int start(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    /**
+     * Find the chunk containing the line starting at the offset.
+     */
+    private int chunkOf(int start) {
+        int lo = 0, hi = chunkCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (bases[mid] <= start)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private void inflate() {
+        if (inflated != null)
+            return;
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i)
+            list.add(get(i));
+        inflated = list;
+        chunks = null;
+        bases = null;
+        chunkCount = 0;
+        ends = null;
+    }
+
+    /**
+     * Get a line without creating a {@link String} if the line only contains ASCII characters.
+     */
+    @NonNull
+    synchronized CharSequence getSequence(int i) {
+        if (inflated != null)
+            return inflated.get(i);
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+        int start = start(i);
+        int len = ends[i] - start;
+        if (len == 0)
+            return "";
+        int k = chunkOf(start);
+        byte[] chunk = chunks[k];
+        start -= bases[k];
+        int end = start + len;
+        for (int j = start; j < end; ++j) {
+            if (chunk[j] < 0)
+                return new String(chunk, start, len, LineScanner.UTF_8);
+        }
+        // Stored bytes are never modified, sharing the array is safe
+        return new AsciiSequence(chunk, start, end);
+    }
+
+    @Override
+    public synchronized String get(int i) {
+        if (inflated != null)
+            return inflated.get(i);
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+        int start = start(i);
+        int len = ends[i] - start;
+        if (len == 0)
+            return "";
+        int k = chunkOf(start);
+        return new String(chunks[k], start - bases[k], len, LineScanner.UTF_8);
+    }
+
+    @Override
+    public synchronized int size() {
+        return inflated != null ? inflated.size() : count;
+    }
+
+    @Override
+    public synchronized boolean add(String s) {
+        if (inflated != null)
+            return inflated.add(s);
+        byte[] b = s.getBytes(LineScanner.UTF_8);
+        addBytes(b, 0, b.length);
+        return true;
+    }
+
+    @Override
+    public synchronized void add(int index, String element) {
+        if (inflated == null && index == count) {
+            add(element);
+            return;
+        }
+        inflate();
+        inflated.add(index, element);
+        ++modCount;
+    }
+
+    @Override
+    public synchronized String set(int index, String element) {
+        inflate();
+        return inflated.set(index, element);
+    }
+
+    @Override
+    public synchronized String remove(int index) {
+        inflate();
+        ++modCount;
+        return inflated.remove(index);
+    }
+
+    @Override
+    public synchronized void clear() {
+        inflated = null;
+        chunks = null;
+        bases = null;
+        chunkCount = 0;
+        ends = null;
+        length = 0;
+        count = 0;
+        ++modCount;
+    }
+
+    private static class AsciiSequence implements CharSequence {
+
+        private final byte[] data;
+        private final int start;
+        private final int end;
+
+        AsciiSequence(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start)
+                throw new IndexOutOfBoundsException();
+            return (char) data[start + index];
+        }
+
+        @NonNull
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > end - start || from > to)
+                throw new IndexOutOfBoundsException();
+            return new AsciiSequence(data, start + from, start + to);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return new String(data, start, end - start, LineScanner.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * A buffered {@link InputStream} that is able to scan lines directly in its byte buffer.
+ * <p>
+ * Data is read from the underlying stream in large chunks, and line breaks are searched
+ * 8 bytes at a time. A line is only decoded into a {@link String} when requested,
+ * so lines that are not stored never pay the cost of UTF-8 decoding.
+ */
+class LineScanner extends InputStream {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUF_SIZE = 64 * 1024;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final InputStream in;
+    private byte[] buf;
+    private ByteBuffer words;
+    private int pos;
+    private int count;
+
+    // The range of the current line in buf, excluding the line break
+    int lineStart;
+    int lineEnd;
+
+    LineScanner(InputStream in) {
+        this.in = in;
+        setBuffer(new byte[BUF_SIZE]);
+    }
+
+    private void setBuffer(byte[] b) {
+        buf = b;
+        words = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * Make room in the buffer and read more data from the underlying stream.
+     * @return {@code false} if the underlying stream reached EOF.
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            // Compact, keep unread data at the start of the buffer
+            count -= pos;
+            if (count > 0)
+                System.arraycopy(buf, pos, buf, 0, count);
+            pos = 0;
+            if (count == 0 && buf.length > BUF_SIZE) {
+                // Shrink after an extremely long line
+                setBuffer(new byte[BUF_SIZE]);
+            }
+        } else if (count == buf.length) {
+            // A single line larger than the buffer
+            byte[] b = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, b, 0, count);
+            setBuffer(b);
+        }
+        int read = in.read(buf, count, buf.length - count);
+        if (read <= 0)
+            return false;
+        count += read;
+        return true;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        int i = from;
+        // SWAR: test 8 bytes at once
+        long pattern = ONES * (b & 0xFF);
+        for (int end = to - 7; i < end; i += 8) {
+            long x = words.getLong(i) ^ pattern;
+            long found = (x - ONES) & ~x & HIGHS;
+            if (found != 0)
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < to; ++i) {
+            if (buf[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Scan the next line. The line is available in {@link #buffer()}
+     * in the range [{@link #lineStart}, {@link #lineEnd}) until the next call to
+     * any method of this class.
+     * @throws EOFException when no more lines are available.
+     */
+    void nextLine() throws IOException {
+        int scanned = pos;
+        for (;;) {
+            int nl = indexOf((byte) '\n', scanned, count);
+            if (nl >= 0) {
+                lineStart = pos;
+                lineEnd = nl;
+                pos = nl + 1;
+                return;
+            }
+            scanned = count - pos;
+            if (!fill()) {
+                if (pos == count)
+                    throw new EOFException();
+                // Last line without a line break
+                lineStart = pos;
+                lineEnd = count;
+                pos = count;
+                return;
+            }
+            scanned += pos;
+        }
+    }
+
+    /**
+     * Scan the next line and decode it into a {@link String}.
+     */
+    String readLine() throws IOException {
+        nextLine();
+        return decode(lineStart, lineEnd);
+    }
+
+    /**
+     * Copy raw data to {@code out} until {@code end} followed by a line break is found.
+     * The end marker itself is consumed but not copied. If writing to {@code out} fails,
+     * the rest of the data is discarded.
+     * @return the number of bytes before the end marker.
+     * @throws EOFException when the underlying stream reached EOF before the end marker.
+     */
+    long transferUntil(byte[] end, OutputStream out) throws IOException {
+        int len = end.length;
+        long total = 0;
+        for (;;) {
+            // A complete marker occupies len + 1 bytes
+            int limit = count - len;
+            int i = pos;
+            while (i < limit && (i = indexOf(end[0], i, limit)) >= 0) {
+                if (buf[i + len] == '\n' && regionMatches(i, end)) {
+                    out = write(out, pos, i);
+                    total += i - pos;
+                    pos = i + len + 1;
+                    if (out != null)
+                        out.flush();
+                    return total;
+                }
+                ++i;
+            }
+            // Hold back bytes that might be the start of the marker
+            int safe = Math.max(pos, limit);
+            out = write(out, pos, safe);
+            total += safe - pos;
+            pos = safe;
+            if (!fill())
+                throw new EOFException();
+        }
+    }
+
+    private boolean regionMatches(int off, byte[] b) {
+        for (int i = 1; i < b.length; ++i) {
+            if (buf[off + i] != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    private OutputStream write(OutputStream out, int start, int end) {
+        if (out == null || start == end)
+            return out;
+        try {
+            out.write(buf, start, end - start);
+            return out;
+        } catch (IOException e) {
+            InternalUtils.stackTrace(e);
+            return null;
+        }
+    }
+
+    /**
+     * Check whether the current line ends with a specific sequence of bytes.
+     */
+    boolean lineEndsWith(byte[] suffix) {
+        int len = suffix.length;
+        if (lineEnd - lineStart < len)
+            return false;
+        for (int i = len - 1, j = lineEnd - 1; i >= 0; --i, --j) {
+            if (buf[j] != suffix[i])
+                return false;
+        }
+        return true;
+    }
+
+    String decode(int start, int end) {
+        return new String(buf, start, end - start, UTF_8);
+    }
+
+    /**
+     * Parse the current line as a decimal integer.
+     */
+    int parseInt() {
+        return parseInt(lineStart);
+    }
+
+    /**
+     * Parse the rest of the current line starting at {@code from} as a decimal integer.
+     */
+    int parseInt(int from) {
+        int i = from;
+        boolean neg = i < lineEnd && buf[i] == '-';
+        if (neg)
+            ++i;
+        if (i == lineEnd)
+            throw new NumberFormatException("Empty line");
+        int val = 0;
+        for (; i < lineEnd; ++i) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9)
+                throw new NumberFormatException(decode(lineStart, lineEnd));
+            val = val * 10 + d;
+        }
+        return neg ? -val : val;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == count && !fill())
+            return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        int avail = count - pos;
+        if (avail == 0) {
+            // Bypass our buffer for large reads
+            if (len >= buf.length)
+                return in.read(b, off, len);
+            if (!fill())
+                return -1;
+            avail = count - pos;
+        }
+        int n = Math.min(avail, len);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+        int avail = count - pos;
+        if (avail == 0)
+            return in.skip(n);
+        int skip = (int) Math.min(avail, n);
+        pos += skip;
+        return skip;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (count - pos) + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.ShellMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class MetricsImpl extends ShellMetrics {
+
+    public static final MetricsImpl INSTANCE = new MetricsImpl();
+
+    private final Histogram queueWait;
+    private final Histogram execTime;
+    private final Histogram spawnTime;
+    private final AtomicLong jobs;
+    private final AtomicLong outLines;
+    private final AtomicLong outBytes;
+    private final AtomicLong spawns;
+    private final AtomicLong respawns;
+    private final AtomicLong ioOps;
+    private final AtomicLong ioRead;
+    private final AtomicLong ioWrite;
+    private final AtomicLong cacheHits;
+    private final AtomicLong cacheMisses;
+
+    private MetricsImpl() {
+        this(new Histogram(), new Histogram(), new Histogram(), new long[10]);
+    }
+
+    private MetricsImpl(Histogram queue, Histogram exec, Histogram spawn, long[] c) {
+        queueWait = queue;
+        execTime = exec;
+        spawnTime = spawn;
+        jobs = new AtomicLong(c[0]);
+        outLines = new AtomicLong(c[1]);
+        outBytes = new AtomicLong(c[2]);
+        spawns = new AtomicLong(c[3]);
+        respawns = new AtomicLong(c[4]);
+        ioOps = new AtomicLong(c[5]);
+        ioRead = new AtomicLong(c[6]);
+        ioWrite = new AtomicLong(c[7]);
+        cacheHits = new AtomicLong(c[8]);
+        cacheMisses = new AtomicLong(c[9]);
+    }
+
+    public void jobStarted(long queueNanos) {
+        queueWait.record(queueNanos);
+    }
+
+    public void jobDone(long execNanos) {
+        execTime.record(execNanos);
+        jobs.incrementAndGet();
+    }
+
+    public void output(long lines, long bytes) {
+        outLines.addAndGet(lines);
+        outBytes.addAndGet(bytes);
+    }
+
+    public void shellSpawned(long nanos) {
+        spawnTime.record(nanos);
+        spawns.incrementAndGet();
+    }
+
+    public void shellRespawned() {
+        respawns.incrementAndGet();
+    }
+
+    public void ioRead(long bytes) {
+        ioOps.incrementAndGet();
+        ioRead.addAndGet(bytes);
+    }
+
+    public void ioWrite(long bytes) {
+        ioOps.incrementAndGet();
+        ioWrite.addAndGet(bytes);
+    }
+
+    public void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    @NonNull
+    @Override
+    public Histogram getQueueWait() {
+        return queueWait;
+    }
+
+    @NonNull
+    @Override
+    public Histogram getExecTime() {
+        return execTime;
+    }
+
+    @NonNull
+    @Override
+    public Histogram getSpawnTime() {
+        return spawnTime;
+    }
+
+    @Override
+    public long getJobCount() {
+        return jobs.get();
+    }
+
+    @Override
+    public long getOutputLines() {
+        return outLines.get();
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return outBytes.get();
+    }
+
+    @Override
+    public long getSpawnCount() {
+        return spawns.get();
+    }
+
+    @Override
+    public long getRespawnCount() {
+        return respawns.get();
+    }
+
+    @Override
+    public long getIOOps() {
+        return ioOps.get();
+    }
+
+    @Override
+    public long getIOReadBytes() {
+        return ioRead.get();
+    }
+
+    @Override
+    public long getIOWriteBytes() {
+        return ioWrite.get();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    private static long get(AtomicLong l, boolean reset) {
+        return reset ? l.getAndSet(0) : l.get();
+    }
+
+    @NonNull
+    @Override
+    public ShellMetrics snapshot(boolean reset) {
+        long[] c = new long[] {
+                get(jobs, reset), get(outLines, reset), get(outBytes, reset),
+                get(spawns, reset), get(respawns, reset),
+                get(ioOps, reset), get(ioRead, reset), get(ioWrite, reset),
+                get(cacheHits, reset), get(cacheMisses, reset)
+        };
+        return new MetricsImpl(queueWait.copy(reset), execTime.copy(reset),
+                spawnTime.copy(reset), c);
+    }
+
+    @Override
+    public void reset() {
+        snapshot(true);
+    }
+}
@@ -18,9 +18,19 @@ package com.uhbnjiokm.superuser.internal;
 
 import com.uhbnjiokm.superuser.NoShellException;
 import com.uhbnjiokm.superuser.Shell;
+import com.uhbnjiokm.superuser.ShellPool;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 class PendingJob extends JobImpl {
 
+    // Only accepts PriorityTask
+    private static final ThreadPoolExecutor DISPATCHER = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+
     private boolean isSU;
     private boolean retry;
 
@@ -31,40 +41,91 @@ class PendingJob extends JobImpl {
     }
 
     @Override
-    public Shell.Result exec() {
+    Object flightScope() {
+        // Identical jobs may share the execution in any shell of the pool,
+        // as long as the global shell of the pool stays the same
+        return ResultCache.poolScope(isSU);
+    }
+
+    @Override
+    Shell.Result execJob() {
+        ShellPool pool = Shell.getPool();
         try {
-            shell = (ShellImpl) Shell.getShell();
+            shell = (ShellImpl) pool.acquire();
         } catch (NoShellException e) {
-            return ResultImpl.INSTANCE;
+            return report(ResultImpl.INSTANCE);
+        }
+        Shell.Result res;
+        try {
+            if (isSU && !shell.isRoot())
+                return report(ResultImpl.INSTANCE);
+            res = super.execJob();
+        } finally {
+            pool.release(shell);
         }
-        if (isSU && !shell.isRoot())
-            return ResultImpl.INSTANCE;
-        Shell.Result res = super.exec();
         if (!retry && res == ResultImpl.SHELL_ERR) {
             // The cached shell is terminated, try to re-run this task
             retry = true;
-            return exec();
+            markQueued();
+            return execJob();
         }
         return res;
     }
 
     @Override
-    public void submit(Shell.ResultCallback cb) {
-        Shell.getShell(s -> {
-            if (isSU && !s.isRoot() && cb != null) {
-                cb.onResult(ResultImpl.INSTANCE);
+    void startJob(ResultFutureImpl future) {
+        markQueued();
+        // Acquiring the global shell might block, dispatch in a background thread by priority
+        PriorityKey key = new PriorityKey(priority);
+        Runnable task = new PriorityTask(key, () -> {
+            if (future.isCancelled())
+                return;
+            ShellPool pool = Shell.getPool();
+            ShellImpl acquired;
+            try {
+                acquired = (ShellImpl) pool.acquire();
+            } catch (NoShellException e) {
+                future.complete(report(ResultImpl.INSTANCE));
                 return;
             }
-            shell = (ShellImpl) s;
-            super.submit(res -> {
-                if (!retry && res == ResultImpl.SHELL_ERR) {
-                    // The cached shell is terminated, try to re-schedule this task
-                    retry = true;
-                    submit(cb);
-                } else if (cb != null) {
-                    cb.onResult(res);
+            if (isSU && !acquired.isRoot()) {
+                pool.release(acquired);
+                future.complete(report(ResultImpl.INSTANCE));
+                return;
+            }
+            Runnable run = new PriorityTask(key, () -> {
+                if (!future.start()) {
+                    pool.release(acquired);
+                    return;
                 }
+                shell = acquired;
+                start0(res -> {
+                    pool.release(acquired);
+                    if (!retry && res == ResultImpl.SHELL_ERR) {
+                        // The cached shell is terminated, try to re-schedule this task
+                        retry = true;
+                        startJob(future);
+                    } else {
+                        future.complete(res);
+                    }
+                });
             });
+            future.setTask(acquired.SERIAL_EXECUTOR, run);
+            try {
+                acquired.SERIAL_EXECUTOR.execute(run);
+            } catch (RejectedExecutionException e) {
+                // The shell is closed
+                pool.release(acquired);
+                future.setTask(null, null);
+                if (retry) {
+                    future.complete(report(ResultImpl.INSTANCE));
+                } else {
+                    retry = true;
+                    startJob(future);
+                }
+            }
         });
+        future.setTask(DISPATCHER, task);
+        DISPATCHER.execute(task);
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.Shell;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+class PreparedCommandImpl extends Shell.PreparedCommand {
+
+    private static final byte[] ESCAPED_QUOTE = { '\'', '\\', '\'', '\'' };
+
+    private final String template;
+    // Static parts of the command, a slot sits between every two parts
+    private final byte[][] parts;
+    private final int[] slots;
+    private final int argCount;
+
+    PreparedCommandImpl(String template) {
+        this.template = template;
+        List<byte[]> p = new ArrayList<>();
+        List<Integer> s = new ArrayList<>();
+        StringBuilder part = new StringBuilder();
+        int max = -1;
+        int len = template.length();
+        // The quote character of the quoted string being parsed, or 0 if not quoted
+        char quote = 0;
+        for (int i = 0; i < len; ++i) {
+            char c = template.charAt(i);
+            part.append(c);
+            if (c == '\\' && quote != '\'' && i + 1 < len) {
+                char next = template.charAt(i + 1);
+                if (next == '\'' || next == '"' || next == '\\') {
+                    // Escaped character, never starts or ends a quoted string
+                    part.append(next);
+                    ++i;
+                }
+                continue;
+            }
+            if (c == '\'' || c == '"') {
+                if (quote == 0)
+                    quote = c;
+                else if (quote == c)
+                    quote = 0;
+                continue;
+            }
+            if (c != '{')
+                continue;
+            if (i + 1 < len && template.charAt(i + 1) == '{') {
+                // "{{" is a literal brace
+                ++i;
+                continue;
+            }
+            if (i > 0 && template.charAt(i - 1) == '$') {
+                // Parameter expansion of the shell, e.g. ${1}
+                continue;
+            }
+            int j = i + 1;
+            int idx = 0;
+            while (j < len && template.charAt(j) >= '0' && template.charAt(j) <= '9' && idx < 1000)
+                idx = idx * 10 + (template.charAt(j++) - '0');
+            if (j == i + 1 || j == len || template.charAt(j) != '}')
+                continue;
+            if (quote != 0) {
+                // The quotes around the argument would end the quoted string, and expose it
+                throw new IllegalArgumentException(
+                        "Slot " + template.substring(i, j + 1) + " is quoted: " + template);
+            }
+            part.setLength(part.length() - 1);
+            p.add(encode(part.toString()));
+            part.setLength(0);
+            s.add(idx);
+            max = Math.max(max, idx);
+            i = j;
+        }
+        p.add(encode(part.toString()));
+        parts = p.toArray(new byte[0][]);
+        slots = new int[s.size()];
+        for (int i = 0; i < slots.length; ++i)
+            slots[i] = s.get(i);
+        argCount = max + 1;
+    }
+
+    private static byte[] encode(String s) {
+        return s.getBytes(LineScanner.UTF_8);
+    }
+
+    @NonNull
+    @Override
+    public String getTemplate() {
+        return template;
+    }
+
+    @Override
+    public int getArgCount() {
+        return argCount;
+    }
+
+    @NonNull
+    @Override
+    public String format(String... args) {
+        return bind(args).toString();
+    }
+
+    InputHandler bind(String[] args) {
+        if (args == null)
+            args = new String[0];
+        if (args.length < argCount)
+            throw new IllegalArgumentException("Command requires " + argCount + " arguments: " + template);
+        for (int i = 0; i < argCount; ++i) {
+            if (args[i] == null)
+                throw new IllegalArgumentException("Argument " + i + " is null: " + template);
+        }
+        return new Bound(args);
+    }
+
+    /**
+     * Write the command, quoting each argument as a single word.
+     * Arguments are encoded into UTF-8 directly without temporary buffers.
+     */
+    private void write(OutputStream out, String[] args) throws IOException {
+        for (int i = 0; i < slots.length; ++i) {
+            out.write(parts[i]);
+            writeQuoted(out, args[slots[i]]);
+        }
+        out.write(parts[slots.length]);
+        out.write('\n');
+    }
+
+    private static void writeQuoted(OutputStream out, String s) throws IOException {
+        out.write('\'');
+        int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c == '\'') {
+                out.write(ESCAPED_QUOTE);
+            } else if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.write(0xF0 | (cp >> 18));
+                out.write(0x80 | ((cp >> 12) & 0x3F));
+                out.write(0x80 | ((cp >> 6) & 0x3F));
+                out.write(0x80 | (cp & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Malformed, same as String.getBytes()
+                out.write('?');
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        out.write('\'');
+    }
+
+    private class Bound implements InputHandler {
+
+        private final String[] args;
+
+        Bound(String[] args) {
+            this.args = args;
+        }
+
+        @Override
+        public void handleInput(OutputStream in) throws IOException {
+            write(in, args);
+            InternalUtils.log(TAG, this);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < slots.length; ++i) {
+                sb.append(new String(parts[i], LineScanner.UTF_8)).append('\'')
+                        .append(args[slots[i]].replace("'", "'\\''")).append('\'');
+            }
+            return sb.append(new String(parts[slots.length], LineScanner.UTF_8)).toString();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.Shell;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The scheduling key of prioritized work.
+ * <p>
+ * Each priority grants a different slack: work is ordered by its arrival time plus the slack
+ * of its priority. Higher priority work overtakes lower priority work that arrived recently,
+ * while lower priority work that has waited longer than the difference of slacks can no
+ * longer be overtaken, so nothing starves.
+ */
+class PriorityKey implements Comparable<PriorityKey> {
+
+    private static final long[] SLACK = {
+            0,                                  /* PRIORITY_INTERACTIVE */
+            TimeUnit.MILLISECONDS.toNanos(200), /* PRIORITY_NORMAL */
+            TimeUnit.SECONDS.toNanos(2)         /* PRIORITY_BULK */
+    };
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    final long deadline;
+    private final long seq;
+
+    PriorityKey(int priority) {
+        if (priority < Shell.PRIORITY_INTERACTIVE || priority > Shell.PRIORITY_BULK)
+            priority = Shell.PRIORITY_NORMAL;
+        deadline = System.nanoTime() + SLACK[priority];
+        seq = SEQ.getAndIncrement();
+    }
+
+    PriorityKey(PriorityKey key) {
+        deadline = key.deadline;
+        seq = key.seq;
+    }
+
+    @Override
+    public int compareTo(@NonNull PriorityKey o) {
+        // nanoTime might overflow, compare differences
+        long d = deadline - o.deadline;
+        if (d != 0)
+            return d < 0 ? -1 : 1;
+        return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import java.util.PriorityQueue;
+
+/**
+ * A reentrant lock granting access in the order of {@link PriorityKey}.
+ * <p>
+ * Like an intrinsic lock, acquiring cannot be interrupted; the interrupt status
+ * of the thread is restored after the lock is acquired.
+ */
+class PriorityLock {
+
+    private static class Waiter extends PriorityKey {
+        Waiter(int priority) {
+            super(priority);
+        }
+    }
+
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private Thread owner;
+    private int holds;
+
+    synchronized void lock(int priority) {
+        Thread t = Thread.currentThread();
+        if (owner == t) {
+            ++holds;
+            return;
+        }
+        if (owner != null || !waiters.isEmpty()) {
+            Waiter w = new Waiter(priority);
+            waiters.add(w);
+            boolean interrupted = false;
+            while (owner != null || waiters.peek() != w) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            waiters.poll();
+            if (interrupted)
+                t.interrupt();
+        }
+        owner = t;
+        holds = 1;
+    }
+
+    synchronized void unlock() {
+        if (owner != Thread.currentThread())
+            throw new IllegalMonitorStateException();
+        if (--holds == 0) {
+            owner = null;
+            if (!waiters.isEmpty())
+                notifyAll();
+        }
+    }
+}
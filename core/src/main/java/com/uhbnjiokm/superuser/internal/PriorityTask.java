@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+/**
+ * A {@link Runnable} that can be queued in a {@link java.util.concurrent.PriorityBlockingQueue}.
+ */
+class PriorityTask extends PriorityKey implements Runnable {
+
+    private final Runnable task;
+
+    PriorityTask(int priority, Runnable r) {
+        super(priority);
+        task = r;
+    }
+
+    /**
+     * Create a task scheduled with the same key as another task.
+     */
+    PriorityTask(PriorityKey key, Runnable r) {
+        super(key);
+        task = r;
+    }
+
+    @Override
+    public void run() {
+        task.run();
+    }
+}
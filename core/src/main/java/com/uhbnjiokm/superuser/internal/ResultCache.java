@@ -0,0 +1,166 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import com.uhbnjiokm.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of job results, each entry expiring after its own TTL.
+ */
+public final class ResultCache {
+
+    private static final Map<SingleFlight.Key, Cached> cache =
+            new LinkedHashMap<SingleFlight.Key, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SingleFlight.Key, Cached> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private static int maxSize = 64;
+
+    /**
+     * Jobs dispatched to the pool are scoped to the global shell they were started with,
+     * so results of a previous global shell are never reused after it is replaced.
+     */
+    private static class PoolScope {
+        final boolean su;
+        final Shell shell;
+
+        PoolScope(boolean su, Shell shell) {
+            this.su = su;
+            this.shell = shell;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PoolScope))
+                return false;
+            PoolScope s = (PoolScope) o;
+            return su == s.su && shell == s.shell;
+        }
+
+        @Override
+        public int hashCode() {
+            return shell.hashCode() * 2 + (su ? 1 : 0);
+        }
+    }
+
+    private static class Cached {
+        final List<String> out;
+        final List<String> err;
+        final int code;
+        final long expires;
+
+        Cached(Shell.Result res, long ttl) {
+            // Detach outputs from lists owned by the caller
+            out = res.getOut().isEmpty() ? null : new ArrayList<>(res.getOut());
+            err = res.getErr().isEmpty() ? null : new ArrayList<>(res.getErr());
+            code = res.getCode();
+            expires = System.nanoTime() + ttl;
+        }
+
+        ResultImpl newResult() {
+            ResultImpl res = new ResultImpl();
+            res.out = out == null ? null : new ArrayList<>(out);
+            res.err = err == null ? null : new ArrayList<>(err);
+            res.code = code;
+            return res;
+        }
+    }
+
+    private ResultCache() {}
+
+    public static synchronized void setMaxSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Invalid cache size: " + size);
+        maxSize = size;
+        Iterator<Cached> it = cache.values().iterator();
+        while (cache.size() > maxSize) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Get the scope of jobs dispatched to the pool.
+     * @return {@code null} if there is no active global shell yet.
+     */
+    static Object poolScope(boolean su) {
+        Shell shell = Shell.getCachedShell();
+        return shell == null ? null : new PoolScope(su, shell);
+    }
+
+    /**
+     * Get a fresh copy of a cached result.
+     * @return {@code null} if there is no valid result cached.
+     */
+    static Shell.Result get(SingleFlight.Key key) {
+        Cached e;
+        synchronized (ResultCache.class) {
+            e = cache.get(key);
+            if (e != null && (System.nanoTime() - e.expires >= 0 || !isAlive(key.scope))) {
+                cache.remove(key);
+                e = null;
+            }
+        }
+        if (e == null) {
+            MetricsImpl.INSTANCE.cacheMiss();
+            return null;
+        }
+        MetricsImpl.INSTANCE.cacheHit();
+        return e.newResult();
+    }
+
+    /**
+     * Cache the result of a job.
+     * @param ttl the time to live of the entry in nanoseconds.
+     */
+    static void put(SingleFlight.Key key, Shell.Result res, long ttl) {
+        // Only cache results of jobs that actually ran
+        if (res == ResultImpl.INSTANCE || res == ResultImpl.SHELL_ERR ||
+                res.getCode() == Shell.Result.JOB_NOT_EXECUTED)
+            return;
+        Cached e = new Cached(res, ttl);
+        synchronized (ResultCache.class) {
+            if (maxSize > 0)
+                cache.put(key, e);
+        }
+    }
+
+    /**
+     * Remove all cached results of jobs whose commands start with {@code prefix}.
+     */
+    public static synchronized void invalidate(String prefix) {
+        for (Iterator<SingleFlight.Key> it = cache.keySet().iterator(); it.hasNext();) {
+            SingleFlight.Key key = it.next();
+            if (prefix == null || key.cmd.startsWith(prefix))
+                it.remove();
+        }
+    }
+
+    private static boolean isAlive(Object scope) {
+        if (scope instanceof PoolScope)
+            scope = ((PoolScope) scope).shell;
+        return !(scope instanceof Shell) || ((Shell) scope).isAlive();
+    }
+}
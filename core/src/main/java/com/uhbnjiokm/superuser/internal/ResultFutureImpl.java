@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import androidx.annotation.NonNull;
+
+import com.uhbnjiokm.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class ResultFutureImpl extends Shell.ResultFuture {
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    private final Executor executor;
+    private int state = NEW;
+    private Shell.Result result;
+    private List<Shell.ResultCallback> callbacks = new ArrayList<>();
+
+    // The queued task that will start the job
+    private ThreadPoolExecutor queue;
+    private Runnable task;
+
+    ResultFutureImpl(Executor executor) {
+        this.executor = executor;
+    }
+
+    synchronized void setTask(ThreadPoolExecutor e, Runnable r) {
+        queue = e;
+        task = r;
+    }
+
+    /**
+     * Mark the job as started.
+     * @return {@code false} if the job is cancelled and should not run.
+     */
+    synchronized boolean start() {
+        task = null;
+        queue = null;
+        if (state == NEW)
+            state = RUNNING;
+        return state == RUNNING;
+    }
+
+    synchronized boolean isStarted() {
+        return state != NEW;
+    }
+
+    void complete(Shell.Result res) {
+        List<Shell.ResultCallback> list;
+        synchronized (this) {
+            if (state >= DONE)
+                return;
+            result = res;
+            state = DONE;
+            notifyAll();
+            list = callbacks;
+            callbacks = null;
+        }
+        for (Shell.ResultCallback cb : list)
+            executor.execute(() -> cb.onResult(res));
+    }
+
+    @Override
+    public Shell.ResultFuture whenDone(@NonNull Shell.ResultCallback cb) {
+        Shell.Result res;
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(cb);
+                return this;
+            }
+            res = result;
+        }
+        executor.execute(() -> cb.onResult(res));
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        List<Shell.ResultCallback> list;
+        synchronized (this) {
+            if (state != NEW)
+                return false;
+            state = CANCELLED;
+            result = ResultImpl.INSTANCE;
+            notifyAll();
+            list = callbacks;
+            callbacks = null;
+            // Remove the job from the queue
+            if (queue != null)
+                queue.remove(task);
+            queue = null;
+            task = null;
+        }
+        for (Shell.ResultCallback cb : list)
+            executor.execute(() -> cb.onResult(ResultImpl.INSTANCE));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state >= DONE;
+    }
+
+    @Override
+    public synchronized Shell.Result get() throws InterruptedException {
+        while (state < DONE)
+            wait();
+        return report();
+    }
+
+    @Override
+    public synchronized Shell.Result get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        long start = System.nanoTime();
+        while (state < DONE) {
+            long left = nanos - (System.nanoTime() - start);
+            if (left <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return report();
+    }
+
+    private Shell.Result report() {
+        if (state == CANCELLED)
+            throw new CancellationException();
+        return result;
+    }
+}
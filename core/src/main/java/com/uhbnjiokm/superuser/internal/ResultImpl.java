@@ -20,16 +20,94 @@ import androidx.annotation.NonNull;
 
 import com.uhbnjiokm.superuser.Shell;
 
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 class ResultImpl extends Shell.Result {
     List<String> out;
     List<String> err;
+    Shell.LineConsumer outLine;
+    Shell.LineConsumer errLine;
+    OutputStream rawOut;
     int code = JOB_NOT_EXECUTED;
+    // Output limits, 0 means unlimited
+    int maxLines;
+    long maxBytes;
+    int overflow = Shell.OVERFLOW_KEEP_HEAD;
+    // Timestamps for metrics
+    long queued;
+    long started;
+    Shell.Job job;
+    // The shared execution led by the job, if any
+    ResultFutureImpl flight;
     static Shell.Result INSTANCE = new ResultImpl();
     static Shell.Result SHELL_ERR = new ResultImpl();
 
+    // Number of output streams that are still being read
+    private int pending = 0;
+    private Runnable onDone;
+    private long droppedLines;
+    private long droppedBytes;
+
+    synchronized void setPending(int streams) {
+        pending = streams;
+    }
+
+    /**
+     * Mark one output stream as done.
+     * @return {@code true} if all streams of the job are done.
+     */
+    synchronized boolean streamDone() {
+        if (pending == 0 || --pending > 0)
+            return false;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Record outputs dropped by one output stream.
+     */
+    synchronized void dropped(long lines, long bytes) {
+        droppedLines += lines;
+        droppedBytes += bytes;
+    }
+
+    void runCallback(Executor executor) {
+        Runnable r;
+        synchronized (this) {
+            r = onDone;
+            onDone = null;
+        }
+        if (r != null)
+            executor.execute(r);
+    }
+
+    synchronized void await() {
+        boolean interrupted = false;
+        while (pending > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    void whenDone(Runnable r, Executor executor) {
+        synchronized (this) {
+            if (pending > 0) {
+                onDone = r;
+                return;
+            }
+        }
+        // Callbacks of earlier jobs might still be queued, keep the order
+        executor.execute(r);
+    }
+
     @NonNull
     @Override
     public List<String> getOut() {
@@ -42,11 +120,42 @@ class ResultImpl extends Shell.Result {
         return err == null ? Collections.emptyList() : err;
     }
 
+    @NonNull
+    @Override
+    public CharSequence getOutLine(int index) {
+        if (out instanceof LineList)
+            return ((LineList) out).getSequence(index);
+        return super.getOutLine(index);
+    }
+
+    @NonNull
+    @Override
+    public CharSequence getErrLine(int index) {
+        if (err instanceof LineList)
+            return ((LineList) err).getSequence(index);
+        return super.getErrLine(index);
+    }
+
     @Override
     public int getCode() {
         return code;
     }
 
+    @Override
+    public synchronized boolean isTruncated() {
+        return droppedLines > 0;
+    }
+
+    @Override
+    public synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+
+    @Override
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
     @Override
     public boolean isSuccess() {
         return code == 0;
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import com.uhbnjiokm.superuser.ShellUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keep large scripts in read-only variables of a shell, named by the hash of their contents,
+ * so each script only has to be sent to the shell once.
+ * <p>
+ * A script is installed right before the first job running it, outside of the subshell
+ * and redirections of the job, so it stays in the shell no matter how the job ends.
+ * Installed scripts cannot be modified or removed by jobs, so a shell never misses them.
+ */
+class ScriptCache {
+
+    // Sending small scripts is cheaper than keeping them in the shell
+    private static final int MIN_SIZE = 4096;
+    // Scripts are kept until the shell is closed, limit the memory used by a single shell
+    private static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final String INSTALL = "__LIBSU_S%1$s=$(cat <<'__LIBSU_%1$s'\n";
+    private static final String INSTALL_END = "__LIBSU_%1$s\n" +
+            ") 2>/dev/null;readonly __LIBSU_S%1$s\n";
+    private static final String RUN = "eval \"$__LIBSU_S%s\"\n";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Set<String> installed = new HashSet<>();
+    private long bytes = 0;
+
+    /**
+     * Reserve space for a script in the shell.
+     * @return {@code true} if the script has to be installed before it runs.
+     */
+    private synchronized boolean reserve(String hash, int size) {
+        if (installed.contains(hash) || bytes + size > MAX_BYTES)
+            return false;
+        installed.add(hash);
+        bytes += size;
+        return true;
+    }
+
+    private synchronized boolean isInstalled(String hash) {
+        return installed.contains(hash);
+    }
+
+    private static String hash(byte[] b) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(b);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; ++i) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    static class Handler implements InputHandler {
+
+        private final InputStream is;
+        private byte[] script;
+        private String hash;
+
+        Handler(InputStream is) {
+            this.is = is;
+        }
+
+        private void read() throws IOException {
+            if (script != null)
+                return;
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try {
+                ShellUtils.noFlushPump(is, buf);
+            } finally {
+                is.close();
+            }
+            script = buf.toByteArray();
+        }
+
+        @Override
+        public void prepare(OutputStream in, ShellImpl shell) throws IOException {
+            read();
+            if (script.length < MIN_SIZE)
+                return;
+            hash = hash(script);
+            if (hash == null || !shell.scripts.reserve(hash, script.length))
+                return;
+            InternalUtils.log(TAG, "install script " + hash);
+            in.write(String.format(INSTALL, hash).getBytes("UTF-8"));
+            in.write(script);
+            if (script[script.length - 1] != '\n')
+                in.write('\n');
+            in.write(String.format(INSTALL_END, hash).getBytes("UTF-8"));
+        }
+
+        @Override
+        public void handleInput(OutputStream in) throws IOException {
+            handleInput(in, null);
+        }
+
+        @Override
+        public void handleInput(OutputStream in, ShellImpl shell) throws IOException {
+            read();
+            if (shell != null && hash != null && shell.scripts.isInstalled(hash)) {
+                InternalUtils.log(TAG, "<InputStream " + hash + ">");
+                in.write(String.format(RUN, hash).getBytes("UTF-8"));
+                return;
+            }
+            InternalUtils.log(TAG, "<InputStream>");
+            in.write(script);
+            // Make sure it ends properly
+            in.write('\n');
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.uhbnjiokm.superuser.internal;
 
+import android.content.Context;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
@@ -25,27 +26,63 @@ import com.uhbnjiokm.superuser.ShellUtils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class ShellImpl extends Shell {
     private static final String TAG = "SHELLIMPL";
+    private static final String TOKEN_CMD = "echo %s;echo %s >&2;echo $__RET;__RET=\n";
+    private static final String END_CMD = "__RET=$?;" + TOKEN_CMD;
+
+    // Timed jobs run in a background subshell watched by a watchdog killing its process tree
+    private static final byte[] TIMED_START = ("__KT(){ kill -STOP $1 2>/dev/null;" +
+            "for __C in $(pgrep -P $1 2>/dev/null);do __KT $__C;done;kill -9 $1 2>/dev/null;}\n" +
+            "(\n").getBytes(LineScanner.UTF_8);
+    private static final String TIMED_END = "\n) & __P=$!\n" +
+            "(trap 'kill $__S;exit 1' TERM;sleep %s & __S=$!;wait $__S;trap '' TERM;" +
+            "__KT $__P;exit 0) >/dev/null 2>&1 & __W=$!\n" +
+            "wait $__P 2>/dev/null;__RET=$?;kill $__W 2>/dev/null;wait $__W 2>/dev/null && __RET=" + Result.JOB_TIMEOUT + "\n";
+    private static final String TIMED_END_CMD = TIMED_END + TOKEN_CMD;
+
+    // Jobs aborting on overflow pipe their STDOUT through head, the return code is passed on fd 5
+    private static final byte[] ABORT_START = "{ __RC=$({ { {\n".getBytes(LineScanner.UTF_8);
+    private static final String ABORT_END = "\n} 4>&- 5>&-;echo $? >&5;}%s >&4;} 5>&1);} 4>&1\n" +
+            "(exit $__RC);";
+
+    // Framed shells relay outputs through tagging loops reading from FIFOs on fd 8 and 9.
+    // Every line is prefixed with L, the end token and the return code become a status frame.
+    private static final String FRAME_INIT = "__TAG(){ while IFS= read -r __L;do case $__L in " +
+            "*%1$s)__L=${__L%%%1$s};[ -n \"$__L\" ]&&printf 'L%%s\\n' \"$__L\";" +
+            "IFS= read -r __L;printf 'S%%s\\n' \"$__L\";;" +
+            "*)printf 'L%%s\\n' \"$__L\";;esac;done;}\n" +
+            "__F=%2$s;rm -f \"$__F.o\" \"$__F.e\";if mkfifo \"$__F.o\" \"$__F.e\" 2>/dev/null;then " +
+            "__TAG <\"$__F.o\" & __TAG <\"$__F.e\" >&2 & exec 8<>\"$__F.o\" 9<>\"$__F.e\";" +
+            "rm -f \"$__F.o\" \"$__F.e\";echo %1$s >&8;echo 0 >&8;echo %1$s >&9;echo 0 >&9;" +
+            "else echo F;echo F >&2;fi;__F=\n";
+    private static final byte[] FRAME_START = "{\n".getBytes(LineScanner.UTF_8);
+    private static final String FRAME_CMD = "echo %s >&8;echo $__RET >&8;echo %s >&9;echo $__RET >&9;__RET=\n";
 
     private int status;
-    ExecutorService SERIAL_EXECUTOR;
+    ThreadPoolExecutor SERIAL_EXECUTOR;
+    // Runs callbacks of finished jobs in order, never in the reader threads
+    final ThreadPoolExecutor callbackExecutor;
 
     private final Process process;
     private final NoCloseOutputStream STDIN;
@@ -53,12 +90,42 @@ class ShellImpl extends Shell {
     private final NoCloseInputStream STDERR;
     private final StreamGobbler outGobbler;
     private final StreamGobbler errGobbler;
+    private final String token;
+    private final byte[] endToken;
     private final byte[] endCmd;
+    private final boolean pipelined;
+    private boolean framed;
+    // Scripts installed in the shell
+    final ScriptCache scripts = new ScriptCache();
+    private final PriorityLock lock = new PriorityLock();
+    private long seq = 0;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    // Jobs waiting for their outputs to be read
+    private final BlockingQueue<PendingOutput> outQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<PendingOutput> errQueue = new LinkedBlockingQueue<>();
+    private final Object pendingLock = new Object();
+    private int inflight = 0;
+    private boolean readerExited = false;
+    private int eofReaders = 0;
+    private Future<?> outReader;
+    private Future<?> errReader;
+
+    private static class PendingOutput {
+        final ResultImpl res;
+        final byte[] end;
+
+        PendingOutput(ResultImpl r, byte[] e) {
+            res = r;
+            end = e;
+        }
+    }
 
     private static class NoCloseInputStream extends FilterInputStream {
 
         NoCloseInputStream(InputStream in) {
-            super((in instanceof BufferedInputStream) ? in : new BufferedInputStream(in));
+            super((in instanceof BufferedInputStream || in instanceof LineScanner)
+                    ? in : new BufferedInputStream(in));
         }
 
         @Override
@@ -94,41 +161,56 @@ class ShellImpl extends Shell {
         InternalUtils.log(TAG, "exec " + TextUtils.join(" ", cmd));
         process = Runtime.getRuntime().exec(cmd);
         STDIN = new NoCloseOutputStream(process.getOutputStream());
-        STDOUT = new NoCloseInputStream(process.getInputStream());
-        STDERR = new NoCloseInputStream(process.getErrorStream());
+        LineScanner out = new LineScanner(process.getInputStream());
+        LineScanner err = new LineScanner(process.getErrorStream());
+        STDOUT = new NoCloseInputStream(out);
+        STDERR = new NoCloseInputStream(err);
 
-        String token = ShellUtils.genRandomAlphaNumString(32).toString();
+        token = ShellUtils.genRandomAlphaNumString(32).toString();
         InternalUtils.log(TAG, "token: " + token);
-        outGobbler = new StreamGobbler(token, true);
-        errGobbler = new StreamGobbler(token, false);
-        endCmd = String.format("__RET=$?;echo %s;echo %s >&2;echo $__RET;__RET=\n", token, token).getBytes("UTF-8");
-        SERIAL_EXECUTOR = Executors.newSingleThreadExecutor();
+        outGobbler = new StreamGobbler(out, true);
+        errGobbler = new StreamGobbler(err, false);
+        endToken = token.getBytes("UTF-8");
+        endCmd = String.format(END_CMD, token, token).getBytes("UTF-8");
+        // Only accepts PriorityTask
+        SERIAL_EXECUTOR = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+        callbackExecutor = new ThreadPoolExecutor(1, 1, 10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        callbackExecutor.allowCoreThreadTimeOut(true);
+        pipelined = InternalUtils.hasFlag(FLAG_PIPELINE_JOBS);
 
         // Shell checks might get stuck indefinitely
-        Future<Void> future = SERIAL_EXECUTOR.submit(() -> {
+        Future<Void> future = EXECUTOR.submit(() -> {
             // Clean up potential garbage from InputStreams
             ShellUtils.cleanInputStream(STDOUT);
             ShellUtils.cleanInputStream(STDERR);
 
-            BufferedReader br = new BufferedReader(new InputStreamReader(STDOUT));
-
             STDIN.write(("echo SHELL_TEST\n").getBytes("UTF-8"));
             STDIN.flush();
-            String s = br.readLine();
+            String s = out.readLine();
             if (TextUtils.isEmpty(s) || !s.contains("SHELL_TEST"))
                 throw new IOException("Created process is not a shell");
             status = NON_ROOT_SHELL;
 
             STDIN.write(("id\n").getBytes("UTF-8"));
             STDIN.flush();
-            s = br.readLine();
+            s = out.readLine();
             if (!TextUtils.isEmpty(s) && s.contains("uid=0"))
                 status = ROOT_SHELL;
 
             if (status == ROOT_SHELL && cmd.length >= 2 && TextUtils.equals(cmd[1], "--mount-master"))
                 status = ROOT_MOUNT_MASTER;
 
-            br.close();
+            if (InternalUtils.hasFlag(FLAG_FRAMED_OUTPUT)) {
+                // Start the tagging loops, they answer with a status frame each if successful
+                STDIN.write(String.format(FRAME_INIT, token, fifoPath(token)).getBytes("UTF-8"));
+                STDIN.flush();
+                framed = "S0".equals(out.readLine()) & "S0".equals(err.readLine());
+                if (!framed)
+                    InternalUtils.log(TAG, "framed output not available");
+            }
+
             return null;
         });
 
@@ -138,15 +220,38 @@ class ShellImpl extends Shell {
             release();
             throw (IOException) e.getCause();
         } catch (InterruptedException|TimeoutException e) {
+            future.cancel(true);
             SERIAL_EXECUTOR.shutdownNow();
             release();
             InternalUtils.stackTrace(e);
             throw new IOException("Shell timeout");
         }
+
+        // Long-lived loops reading outputs of all jobs
+        outReader = EXECUTOR.submit(new OutputReader(outGobbler, outQueue));
+        errReader = EXECUTOR.submit(new OutputReader(errGobbler, errQueue));
+    }
+
+    private static String fifoPath(String token) {
+        Context ctx = InternalUtils.getContext();
+        File dir = ctx == null ? null : ctx.getCacheDir();
+        if (dir == null)
+            return "\"${TMPDIR:-/data/local/tmp}\"/.libsu-" + token;
+        return "'" + dir.getAbsolutePath().replace("'", "'\\''") + "/.libsu-" + token + "'";
     }
 
     private void release() {
         status = UNKNOWN;
+        // Only report shells that were fully constructed
+        if (outReader != null && !released.getAndSet(true)) {
+            JobEvents.shellClosed(this);
+            if (!SERIAL_EXECUTOR.isShutdown())
+                Supervisor.shellDied(this);
+        }
+        if (outReader != null)
+            outReader.cancel(true);
+        if (errReader != null)
+            errReader.cancel(true);
         try { STDIN.close0(); } catch (IOException ignored) {}
         try { STDERR.close0(); } catch (IOException ignored) {}
         try { STDOUT.close0(); } catch (IOException ignored) {}
@@ -157,8 +262,10 @@ class ShellImpl extends Shell {
     public boolean waitAndClose(long timeout, TimeUnit unit) throws InterruptedException, IOException {
         if (status < 0)
             return true;
+        long start = System.nanoTime();
         SERIAL_EXECUTOR.shutdown();
-        if (SERIAL_EXECUTOR.awaitTermination(timeout, unit)) {
+        if (SERIAL_EXECUTOR.awaitTermination(timeout, unit) &&
+                awaitIdle(unit.toNanos(timeout) - (System.nanoTime() - start))) {
             release();
             return true;
         } else {
@@ -196,11 +303,45 @@ class ShellImpl extends Shell {
         }
     }
 
+    private boolean awaitIdle(long nanos) throws InterruptedException {
+        long start = System.nanoTime();
+        synchronized (pendingLock) {
+            while (inflight > 0) {
+                long left = nanos - (System.nanoTime() - start);
+                if (left <= 0)
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(pendingLock, left);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void execTask(@NonNull Task task) throws IOException {
+        execTask(task, PRIORITY_NORMAL);
+    }
+
     @Override
-    public synchronized void execTask(@NonNull Task task) throws IOException {
+    public void execTask(@NonNull Task task, int priority) throws IOException {
+        lock.lock(priority);
+        try {
+            execTask0(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void execTask0(Task task) throws IOException {
         if (status < 0)
             throw new ShellTerminatedException();
 
+        // Raw tasks require exclusive access to the streams, wait for all pipelined jobs
+        try {
+            awaitIdle(Long.MAX_VALUE);
+        } catch (InterruptedException e) {
+            throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+        }
+
         ShellUtils.cleanInputStream(STDOUT);
         ShellUtils.cleanInputStream(STDERR);
         try {
@@ -220,34 +361,213 @@ class ShellImpl extends Shell {
         return new JobImpl(this);
     }
 
-    Task newTask(List<InputHandler> handlers, ResultImpl res) {
-        return new DefaultTask(handlers, res);
+    /**
+     * Run a job in the shell. When jobs are pipelined, this method returns as soon as
+     * the job is sent to the shell; wait for the result with {@link ResultImpl#await()}.
+     * @param timeout the deadline of the job in milliseconds, or 0 to wait forever.
+     * @param priority the priority to acquire the shell.
+     */
+    void runJob(List<InputHandler> handlers, long timeout, int priority, ResultImpl res)
+            throws IOException {
+        lock.lock(priority);
+        try {
+            if (status < 0)
+                throw new ShellTerminatedException();
+            res.started = System.nanoTime();
+            MetricsImpl.INSTANCE.jobStarted(res.started - res.queued);
+            JobEvents.started(res.job, this);
+            // Identical jobs can no longer join, the caller might have changed what this job reads
+            if (res.flight != null)
+                res.flight.start();
+            // Raw outputs cannot be framed, they are read directly from the streams
+            boolean frame = framed && res.rawOut == null;
+            if (!pipelined) {
+                // Nothing is running, clean up potential garbage
+                ShellUtils.cleanInputStream(STDOUT);
+                ShellUtils.cleanInputStream(STDERR);
+            } else if (framed && !frame) {
+                // Wait until the tagging loops relayed all frames of previous jobs
+                try {
+                    awaitIdle(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+                }
+            }
+            try {
+                STDIN.write('\n');
+                STDIN.flush();
+            } catch (IOException e) {
+                // Shell is dead
+                release();
+                throw new ShellTerminatedException();
+            }
+            for (InputHandler handler : handlers)
+                handler.prepare(STDIN, this);
+
+            byte[] end = endToken;
+            byte[] cmd = endCmd;
+            String tag = token;
+            if (pipelined) {
+                // Each job is tagged with its own sequence token
+                tag = token + (seq++);
+                end = tag.getBytes("UTF-8");
+                cmd = String.format(END_CMD, tag, tag).getBytes("UTF-8");
+            }
+            String secs = null;
+            if (timeout > 0) {
+                secs = String.format(Locale.US, "%d.%03d", timeout / 1000, timeout % 1000);
+                cmd = String.format(TIMED_END_CMD, secs, tag, tag).getBytes("UTF-8");
+            }
+            byte[] abortEnd = null;
+            if (res.overflow == OVERFLOW_ABORT && res.out != null && res.rawOut == null) {
+                // Let the shell kill the job right after the limits are exceeded
+                StringBuilder heads = new StringBuilder();
+                if (res.maxBytes > 0)
+                    heads.append("|head -c ").append(res.maxBytes + 1);
+                if (res.maxLines > 0)
+                    heads.append("|head -n ").append(res.maxLines + 1L);
+                if (heads.length() > 0)
+                    abortEnd = String.format(ABORT_END, heads).getBytes("UTF-8");
+            }
+            if (frame) {
+                // Status frames replace end tokens
+                end = null;
+                cmd = frameEnd(res, secs);
+            }
+            PendingOutput p = new PendingOutput(res, end);
+            res.setPending(2);
+            synchronized (pendingLock) {
+                if (readerExited)
+                    throw new ShellTerminatedException();
+                ++inflight;
+                outQueue.add(p);
+                errQueue.add(p);
+            }
+            try {
+                if (frame)
+                    STDIN.write(FRAME_START);
+                if (timeout > 0)
+                    STDIN.write(TIMED_START);
+                if (abortEnd != null)
+                    STDIN.write(ABORT_START);
+                for (InputHandler handler : handlers)
+                    handler.handleInput(STDIN, this);
+            } finally {
+                // Always end the job to keep the shell in sync with the readers
+                try {
+                    if (abortEnd != null)
+                        STDIN.write(abortEnd);
+                    STDIN.write(cmd);
+                    STDIN.flush();
+                } catch (IOException e) {
+                    // Shell is dead, readers will fail the job
+                    release();
+                }
+                if (!pipelined)
+                    res.await();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private class DefaultTask implements Task {
+    /**
+     * Build the commands ending a framed job: redirect the outputs of the job to the
+     * tagging loops, then end both streams with a status frame.
+     * @param secs the timeout of the job in seconds, or {@code null} if the job is not timed.
+     */
+    private byte[] frameEnd(ResultImpl res, String secs) throws IOException {
+        boolean wantOut = res.out != null || res.outLine != null;
+        boolean wantErr = res.err != null || res.errLine != null;
+        // Merge STDERR into STDOUT in the shell to preserve the order of lines
+        boolean merge = wantErr && res.err == res.out && res.errLine == res.outLine;
+        StringBuilder sb = new StringBuilder();
+        if (secs != null)
+            sb.append(String.format(TIMED_END, secs));
+        else
+            sb.append('\n');
+        sb.append("} ").append(wantOut || merge ? ">&8" : ">/dev/null");
+        sb.append(merge ? " 2>&8" : wantErr ? " 2>&9" : " 2>/dev/null");
+        sb.append(secs != null ? "\n" : ";__RET=$?\n");
+        sb.append(String.format(FRAME_CMD, token, token));
+        return sb.toString().getBytes("UTF-8");
+    }
 
-        private ResultImpl res;
-        private List<InputHandler> handlers;
+    private void jobDone(ResultImpl res) {
+        if (res.streamDone()) {
+            MetricsImpl.INSTANCE.jobDone(System.nanoTime() - res.started);
+            synchronized (pendingLock) {
+                --inflight;
+                pendingLock.notifyAll();
+            }
+            // A callback waiting for another job of this shell would block its readers forever
+            res.runCallback(callbackExecutor);
+        }
+    }
 
-        DefaultTask(List<InputHandler> h, ResultImpl r) {
-            handlers = h;
-            res = r;
+    private class OutputReader implements Runnable {
+
+        private final StreamGobbler gobbler;
+        private final BlockingQueue<PendingOutput> queue;
+
+        OutputReader(StreamGobbler gobbler, BlockingQueue<PendingOutput> queue) {
+            this.gobbler = gobbler;
+            this.queue = queue;
         }
 
         @Override
-        public void run(OutputStream stdin, InputStream stdout, InputStream stderr) throws IOException {
-            Future<Integer> out = EXECUTOR.submit(outGobbler.set(stdout, res.out));
-            Future<Integer> err = EXECUTOR.submit(errGobbler.set(stderr, res.err));
-            for (InputHandler handler : handlers)
-                handler.handleInput(stdin);
-            stdin.write(endCmd);
-            stdin.flush();
+        public void run() {
+            PendingOutput p = null;
             try {
-                res.code = out.get();
-                err.get();
-            } catch (ExecutionException | InterruptedException e) {
-                throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+                for (;;) {
+                    p = queue.take();
+                    boolean isOut = queue == outQueue;
+                    int code;
+                    if (p.end == null && !isOut)
+                        code = gobbler.gobbleFramed(p.res.err, p.res.errLine, p.res);
+                    else if (p.end == null)
+                        code = gobbler.gobbleFramed(p.res.out, p.res.outLine, p.res);
+                    else if (!isOut)
+                        code = gobbler.gobble(p.res.err, p.res.errLine, p.res, p.end);
+                    else if (p.res.rawOut != null)
+                        code = gobbler.transfer(p.res.rawOut, p.end);
+                    else
+                        code = gobbler.gobble(p.res.out, p.res.outLine, p.res, p.end);
+                    if (isOut)
+                        p.res.code = code;
+                    jobDone(p.res);
+                    p = null;
+                }
+            } catch (InterruptedException e) {
+                // Shell closed
+            } catch (EOFException e) {
+                // Shell terminated, let the other reader drain its stream before closing it
+                status = UNKNOWN;
+                boolean first;
+                synchronized (pendingLock) {
+                    first = ++eofReaders == 1;
+                }
+                if (first) {
+                    Future<?> other = queue == outQueue ? errReader : outReader;
+                    try {
+                        if (other != null)
+                            other.get(1, TimeUnit.SECONDS);
+                    } catch (Exception ignored) {}
+                    release();
+                }
+            } catch (Exception e) {
+                // Shell terminated unexpectedly
+                InternalUtils.stackTrace(e);
+                release();
+            }
+            synchronized (pendingLock) {
+                readerExited = true;
             }
+            // Fail all jobs that are still waiting for output
+            if (p != null)
+                jobDone(p.res);
+            while ((p = queue.poll()) != null)
+                jobDone(p.res);
         }
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import android.content.Context;
+
+import com.uhbnjiokm.superuser.NoShellException;
+import com.uhbnjiokm.superuser.Shell;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Construct root shells.
+ * <p>
+ * When a mount master shell is requested, the winning strategy is remembered on disk,
+ * so later starts go straight to it. Plain root shells have nothing to probe.
+ */
+public final class ShellLauncher {
+
+    private static final String TAG = "LAUNCHER";
+    private static final String STRATEGY_FILE = "libsu_root_strategy";
+    private static final String MOUNT_MASTER = "mount-master";
+    private static final String SU = "su";
+
+    private ShellLauncher() {}
+
+    /**
+     * Construct the best possible root shell.
+     * @return the constructed shell, not initialized yet, or {@code null} if root is not available.
+     */
+    public static Shell launchRoot(long timeout, boolean mountMaster) {
+        return launchRoot(timeout, mountMaster, "ac_log");
+    }
+
+    static Shell launchRoot(long timeout, boolean mountMaster, String binary) {
+        String[] suCmd = {binary};
+        String[] mmCmd = {binary, "--mount-master"};
+        if (!mountMaster)
+            return check(create(timeout, suCmd), Shell.ROOT_SHELL);
+
+        // The strategy is only ever recorded for mount master requests
+        String remembered = load();
+        if (MOUNT_MASTER.equals(remembered)) {
+            Shell shell = check(create(timeout, mmCmd), Shell.ROOT_MOUNT_MASTER);
+            if (shell != null)
+                return shell;
+            save(null);
+        } else if (SU.equals(remembered)) {
+            Shell shell = check(create(timeout, suCmd), Shell.ROOT_SHELL);
+            if (shell != null)
+                return shell;
+            save(null);
+        } else {
+            // Nothing is known yet, and su may have to ask the user for permission.
+            // Never show 2 requests at once, probe one candidate after another.
+            Shell shell = create(timeout, mmCmd);
+            if (shell != null && shell.getStatus() == Shell.ROOT_MOUNT_MASTER) {
+                save(MOUNT_MASTER);
+                return shell;
+            }
+            boolean unsupported = shell != null;
+            close(shell);
+            shell = check(create(timeout, suCmd), Shell.ROOT_SHELL);
+            if (shell != null && unsupported)
+                save(SU);
+            return shell;
+        }
+
+        // The remembered strategy stopped working, but root was granted before.
+        // Probe both candidates at the same time, a failing mount master costs nothing.
+        Future<Shell> mm = Shell.EXECUTOR.submit(() -> create(timeout, mmCmd));
+        Future<Shell> su = Shell.EXECUTOR.submit(() ->
+                check(create(timeout, suCmd), Shell.ROOT_SHELL));
+        Shell shell = get(mm);
+        if (shell != null && shell.getStatus() == Shell.ROOT_MOUNT_MASTER) {
+            save(MOUNT_MASTER);
+            // Tear down the loser once it is done
+            Shell.EXECUTOR.execute(() -> close(get(su)));
+            return shell;
+        }
+        // Only skip mount master in the future if su started but could not provide it,
+        // errors such as timeouts might not happen again next time
+        boolean unsupported = shell != null;
+        close(shell);
+        shell = get(su);
+        if (shell != null && unsupported)
+            save(SU);
+        return shell;
+    }
+
+    private static Shell create(long timeout, String[] cmd) {
+        try {
+            return Factory.createShell(timeout, cmd);
+        } catch (IOException | NoShellException e) {
+            InternalUtils.stackTrace(e);
+            return null;
+        }
+    }
+
+    private static Shell check(Shell shell, int status) {
+        if (shell == null || shell.getStatus() == status)
+            return shell;
+        close(shell);
+        return null;
+    }
+
+    private static Shell get(Future<Shell> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            InternalUtils.stackTrace(e);
+            return null;
+        }
+    }
+
+    private static void close(Shell shell) {
+        if (shell == null)
+            return;
+        try {
+            shell.close();
+        } catch (Exception ignored) {}
+    }
+
+    private static File strategyFile() {
+        Context ctx = InternalUtils.getContext();
+        if (ctx == null)
+            return null;
+        File dir = ctx.getFilesDir();
+        return dir == null ? null : new File(dir, STRATEGY_FILE);
+    }
+
+    private static String load() {
+        File file = strategyFile();
+        if (file == null || !file.exists())
+            return null;
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[32];
+            int len = in.read(buf);
+            return len > 0 ? new String(buf, 0, len, "UTF-8") : null;
+        } catch (IOException e) {
+            InternalUtils.stackTrace(e);
+            return null;
+        }
+    }
+
+    private static void save(String strategy) {
+        File file = strategyFile();
+        if (file == null)
+            return;
+        InternalUtils.log(TAG, "root strategy: " + strategy);
+        if (strategy == null) {
+            file.delete();
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(strategy.getBytes("UTF-8"));
+        } catch (IOException e) {
+            InternalUtils.stackTrace(e);
+        }
+    }
+}
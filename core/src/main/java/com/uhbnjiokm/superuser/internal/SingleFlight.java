@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Share a single execution between identical idempotent jobs in flight.
+ * <p>
+ * Only flights that have not been sent to a shell yet can be joined. A job that started
+ * earlier might miss changes made by the caller right before joining, such as a file it wrote.
+ */
+class SingleFlight {
+
+    private static final Map<Key, ResultFutureImpl> flights = new HashMap<>();
+
+    static class Key {
+        final Object scope;
+        private final int outputs;
+        final String cmd;
+
+        /**
+         * @param scope the shell, or the pool, the job runs in.
+         * @param outputs a bitmask of the outputs collected by the job.
+         * @param cmd all commands of the job.
+         */
+        Key(Object scope, int outputs, String cmd) {
+            this.scope = scope;
+            this.outputs = outputs;
+            this.cmd = cmd;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return scope.equals(k.scope) && outputs == k.outputs && cmd.equals(k.cmd);
+        }
+
+        @Override
+        public int hashCode() {
+            return (scope.hashCode() * 31 + outputs) * 31 + cmd.hashCode();
+        }
+    }
+
+    private SingleFlight() {}
+
+    /**
+     * Join the flight of an identical job that has not started yet,
+     * or start a new flight if there is none.
+     * @param flight the future to complete if the caller has to run the job.
+     * @return {@code flight} if the caller has to run the job and complete it, otherwise
+     *         the future of the job already in flight.
+     */
+    static ResultFutureImpl join(Key key, ResultFutureImpl flight) {
+        synchronized (flights) {
+            ResultFutureImpl f = flights.get(key);
+            if (f != null && !f.isStarted())
+                return f;
+            flights.put(key, flight);
+        }
+        // Jobs that start after this point cannot reuse the result
+        flight.whenDone(res -> {
+            synchronized (flights) {
+                if (flights.get(key) == flight)
+                    flights.remove(key);
+            }
+        });
+        return flight;
+    }
+}
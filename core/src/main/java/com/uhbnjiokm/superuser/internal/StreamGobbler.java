@@ -16,80 +16,208 @@
 
 package com.uhbnjiokm.superuser.internal;
 
+import com.uhbnjiokm.superuser.Shell;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Callable;
 
-class StreamGobbler implements Callable<Integer> {
+class StreamGobbler {
 
     private static final String TAG = "SHELLOUT";
 
-    private final String token;
+    private final LineScanner in;
     private final boolean returnCode;
-    private final StringBuilder sb;
-
-    private InputStream in;
-    private List<String> list;
 
-    StreamGobbler(String token, Boolean b) {
-        this.token = token;
+    StreamGobbler(LineScanner in, boolean b) {
+        this.in = in;
         returnCode = b;
-        sb = new StringBuilder();
     }
 
-    public Callable<Integer> set(InputStream in, List<String> list) {
-        this.in = in;
-        this.list = list == null ? null : Collections.synchronizedList(list);
-        return this;
+    /**
+     * Read the output of a single job until the end token is found.
+     * @param list the list to store outputs, or {@code null} to discard outputs.
+     * @param consumer the consumer to stream outputs, or {@code null} to discard outputs.
+     * @param res the result of the job, providing output limits and receiving dropped counts.
+     * @param end the end token of the job.
+     * @return the return code of the job if this gobbler is for STDOUT.
+     */
+    int gobble(List<String> list, Shell.LineConsumer consumer, ResultImpl res, byte[] end)
+            throws IOException {
+        Sink sink = new Sink(list, consumer, res);
+        for (;;) {
+            in.nextLine();
+            int lineEnd = in.lineEnd;
+            boolean eof = in.lineEndsWith(end);
+            if (eof)
+                lineEnd -= end.length;
+            if (!eof || lineEnd > in.lineStart)
+                sink.line(in.buffer(), in.lineStart, lineEnd);
+            if (eof)
+                break;
+        }
+        sink.finish();
+
+        if (!returnCode)
+            return 0;
+        in.nextLine();
+        return sink.returnCode(in.parseInt());
+    }
+
+    /**
+     * Read the framed output of a single job until the status frame is found.
+     * <p>
+     * Every line printed by the job is relayed as a line frame prefixed with {@code L}.
+     * The status frame {@code S} ends the job and carries its return code.
+     * @param list the list to store outputs, or {@code null} to discard outputs.
+     * @param consumer the consumer to stream outputs, or {@code null} to discard outputs.
+     * @param res the result of the job, providing output limits and receiving dropped counts.
+     * @return the return code of the job if this gobbler is for STDOUT.
+     */
+    int gobbleFramed(List<String> list, Shell.LineConsumer consumer, ResultImpl res)
+            throws IOException {
+        Sink sink = new Sink(list, consumer, res);
+        for (;;) {
+            in.nextLine();
+            byte type = in.lineEnd > in.lineStart ? in.buffer()[in.lineStart] : 0;
+            if (type == 'L') {
+                sink.line(in.buffer(), in.lineStart + 1, in.lineEnd);
+            } else if (type == 'S') {
+                sink.finish();
+                return returnCode ? sink.returnCode(in.parseInt(in.lineStart + 1)) : 0;
+            } else {
+                throw new IOException("Unknown frame: " + in.decode(in.lineStart, in.lineEnd));
+            }
+        }
+    }
+
+    /**
+     * Copy the raw output of a single job until the end token is found.
+     * @param out the stream to write outputs.
+     * @param end the end token of the job.
+     * @return the return code of the job if this gobbler is for STDOUT.
+     */
+    int transfer(OutputStream out, byte[] end) throws IOException {
+        MetricsImpl.INSTANCE.output(0, in.transferUntil(end, out));
+        if (!returnCode)
+            return 0;
+        in.nextLine();
+        return in.parseInt();
     }
 
-    private boolean output(String line) {
-        boolean eof = false;
-        int sl = line.length() - 1;
-        int tl = token.length() - 1;
-        if (sl >= tl) {
-            eof = true;
-            for (; tl >= 0; --tl, --sl) {
-                if (token.charAt(tl) != line.charAt(sl)) {
-                    eof = false;
-                    break;
+    /**
+     * Collect the lines of one output stream of a job, applying its output limits.
+     */
+    private static class Sink {
+
+        private final LineList arena;
+        private final List<String> l;
+        private final Shell.LineConsumer consumer;
+        private final ResultImpl res;
+        private final boolean verbose;
+
+        // Output limits, line breaks are included in byte counts
+        private final boolean store;
+        private final boolean limited;
+        private final int maxLines;
+        private final long maxBytes;
+        private final ArrayDeque<byte[]> ring;
+        private int lines = 0;
+        private long bytes = 0;
+        private long droppedLines = 0;
+        private long droppedBytes = 0;
+        private long totalLines = 0;
+        private long totalBytes = 0;
+
+        Sink(List<String> list, Shell.LineConsumer consumer, ResultImpl res) {
+            // Lines can be stored into an arena without decoding
+            arena = list instanceof LineList ? (LineList) list : null;
+            l = list == null || arena != null ? null : Collections.synchronizedList(list);
+            this.consumer = consumer;
+            this.res = res;
+            verbose = InternalUtils.hasFlag(Shell.FLAG_VERBOSE_LOGGING);
+            store = list != null;
+            limited = store && (res.maxLines > 0 || res.maxBytes > 0);
+            maxLines = res.maxLines > 0 ? res.maxLines : Integer.MAX_VALUE;
+            maxBytes = res.maxBytes > 0 ? res.maxBytes : Long.MAX_VALUE;
+            boolean tail = limited && res.overflow == Shell.OVERFLOW_KEEP_TAIL;
+            ring = tail ? new ArrayDeque<>() : null;
+        }
+
+        void line(byte[] buf, int start, int end) {
+            int len = end - start;
+            ++totalLines;
+            totalBytes += len + 1;
+            boolean keep = store;
+            if (ring != null) {
+                // Keep the latest lines in a ring buffer, store them when the job is done
+                ring.addLast(Arrays.copyOfRange(buf, start, end));
+                ++lines;
+                bytes += len + 1;
+                while (lines > maxLines || bytes > maxBytes) {
+                    byte[] b = ring.removeFirst();
+                    --lines;
+                    bytes -= b.length + 1;
+                    ++droppedLines;
+                    droppedBytes += b.length + 1;
+                }
+                keep = false;
+            } else if (limited) {
+                if (droppedLines == 0 && lines < maxLines && bytes + len + 1 <= maxBytes) {
+                    ++lines;
+                    bytes += len + 1;
+                } else {
+                    // Keep head: drop everything after the first overflow
+                    ++droppedLines;
+                    droppedBytes += len + 1;
+                    keep = false;
                 }
             }
-            if (eof)
-                line = sl >= 0 ? line.substring(0, sl + 1) : null;
+            if (keep && arena != null)
+                arena.addBytes(buf, start, len);
+            // Only decode lines that are actually used
+            if ((keep && l != null) || consumer != null || verbose) {
+                String line = new String(buf, start, len, LineScanner.UTF_8);
+                if (keep && l != null)
+                    l.add(line);
+                if (consumer != null)
+                    consume(consumer, line);
+                InternalUtils.log(TAG, line);
+            }
         }
-        if (list != null && line != null) {
-            list.add(line);
-            InternalUtils.log(TAG, line);
+
+        void finish() {
+            if (ring != null) {
+                for (byte[] b : ring) {
+                    if (arena != null)
+                        arena.addBytes(b, 0, b.length);
+                    else
+                        l.add(new String(b, LineScanner.UTF_8));
+                }
+            }
+            if (droppedLines > 0)
+                res.dropped(droppedLines, droppedBytes);
+            MetricsImpl.INSTANCE.output(totalLines, totalBytes);
         }
-        return eof;
-    }
 
-    private String readLine(InputStreamReader reader) throws IOException {
-        sb.setLength(0);
-        for (int c;;) {
-            c = reader.read();
-            if (c == '\n' || c == -1)
-                break;
-            sb.append((char) c);
+        int returnCode(int code) {
+            if (droppedLines > 0 && res.overflow == Shell.OVERFLOW_ABORT && code != Shell.Result.JOB_TIMEOUT)
+                return Shell.Result.JOB_ABORTED;
+            return code;
         }
-        return sb.toString();
     }
 
-    @Override
-    public Integer call() throws Exception {
-        InputStreamReader reader = new InputStreamReader(in, "UTF-8");
-        for (;;) {
-            if (output(readLine(reader)))
-                break;
+    private static void consume(Shell.LineConsumer consumer, String line) {
+        // The consumer might be shared by STDOUT and STDERR
+        synchronized (consumer) {
+            try {
+                consumer.onLine(line);
+            } catch (RuntimeException e) {
+                InternalUtils.stackTrace(e);
+            }
         }
-        int code = returnCode ? Integer.parseInt(readLine(reader)) : 0;
-        reader.close();
-        in = null;
-        list = null;
-        return code;
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 John "uhbnjiokm" Wu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.uhbnjiokm.superuser.internal;
+
+import com.uhbnjiokm.superuser.NoShellException;
+import com.uhbnjiokm.superuser.Shell;
+
+/**
+ * Watch the global shell, respawn it in the background when it dies,
+ * and optionally keep a hot standby shell ready to replace it.
+ */
+public final class Supervisor {
+
+    private static final String TAG = "SUPERVISOR";
+    private static final long MIN_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 60 * 1000;
+
+    private static boolean respawn = false;
+    private static boolean standbyEnabled = false;
+    private static Shell watched;
+    private static Shell standby;
+    private static boolean spawning = false;
+    private static long backoff = 0;
+
+    private Supervisor() {}
+
+    public static synchronized void configure(boolean autoRespawn, boolean hotStandby) {
+        respawn = autoRespawn || hotStandby;
+        standbyEnabled = hotStandby;
+        if (!standbyEnabled && standby != null) {
+            close(standby);
+            standby = null;
+        }
+        if (needsSpawn())
+            spawn(0);
+    }
+
+    /**
+     * Called when a new global shell is set.
+     */
+    public static synchronized void watch(Shell shell) {
+        watched = shell;
+        if (needsSpawn())
+            spawn(0);
+    }
+
+    /**
+     * Take the standby shell to replace the dead global shell.
+     * @return a live shell, or {@code null} if no standby shell is ready.
+     */
+    public static synchronized Shell takeStandby() {
+        Shell s = standby;
+        standby = null;
+        if (s != null && !s.isAlive())
+            s = null;
+        // The new standby is spawned once the swapped in shell is watched
+        return s;
+    }
+
+    /**
+     * Called when a shell dies without being closed.
+     */
+    static synchronized void shellDied(Shell shell) {
+        if (shell == standby)
+            standby = null;
+        else if (shell != watched)
+            return;
+        InternalUtils.log(TAG, "shell died");
+        if (needsSpawn())
+            spawn(backoff);
+    }
+
+    private static boolean needsSpawn() {
+        if (spawning || !respawn)
+            return false;
+        if (watched == null || !watched.isAlive())
+            return !standbyEnabled || standby == null;
+        return standbyEnabled && standby == null;
+    }
+
+    private static void spawn(long delay) {
+        spawning = true;
+        Shell.EXECUTOR.execute(() -> {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    synchronized (Supervisor.class) {
+                        spawning = false;
+                    }
+                    return;
+                }
+            }
+            Shell shell = null;
+            boolean asStandby;
+            synchronized (Supervisor.class) {
+                asStandby = standbyEnabled && watched != null && watched.isAlive();
+            }
+            try {
+                InternalUtils.log(TAG, asStandby ? "spawn standby shell" : "respawn global shell");
+                // Without a live global shell, construct it directly so callers wait for us
+                shell = asStandby ? Shell.newInstance() : Shell.getShell();
+            } catch (NoShellException e) {
+                InternalUtils.stackTrace(e);
+            }
+            synchronized (Supervisor.class) {
+                spawning = false;
+                if (shell == null) {
+                    backoff = Math.min(Math.max(backoff * 2, MIN_BACKOFF), MAX_BACKOFF);
+                } else {
+                    backoff = 0;
+                    if (asStandby) {
+                        if (standbyEnabled && standby == null) {
+                            standby = shell;
+                            shell = null;
+                        }
+                    } else {
+                        shell = null;
+                    }
+                }
+                if (needsSpawn())
+                    spawn(backoff);
+            }
+            // A standby shell that is not needed anymore
+            if (shell != null)
+                close(shell);
+        });
+    }
+
+    private static void close(Shell shell) {
+        try {
+            shell.close();
+        } catch (Exception ignored) {}
+    }
+}
@@ -19,30 +19,93 @@ package com.uhbnjiokm.superuser.internal;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.uhbnjiokm.superuser.Shell;
 import com.uhbnjiokm.superuser.ShellUtils;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 public class UiThreadHandler {
-    public static Handler handler = new Handler(Looper.getMainLooper());
+    private static Handler handler;
+    private static ScheduledThreadPoolExecutor timer;
+
+    // Runnables posted from background threads are coalesced into as few messages as possible
+    private static final int MAX_BATCH = 64;
+    private static final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private static boolean scheduled = false;
+    private static final Runnable DRAIN = () -> {
+        Runnable[] batch;
+        synchronized (UiThreadHandler.class) {
+            batch = new Runnable[Math.min(queue.size(), MAX_BATCH)];
+            for (int i = 0; i < batch.length; ++i)
+                batch[i] = queue.poll();
+        }
+        for (Runnable r : batch)
+            r.run();
+        synchronized (UiThreadHandler.class) {
+            if (queue.isEmpty()) {
+                scheduled = false;
+                return;
+            }
+        }
+        // Let other messages of the main thread run before draining the rest
+        getHandler().post(UiThreadHandler.DRAIN);
+    };
+
+    // Only touch the main looper when it is actually used
+    private static synchronized Handler getHandler() {
+        if (handler == null)
+            handler = new Handler(Looper.getMainLooper());
+        return handler;
+    }
+
+    private static synchronized void post(Runnable r) {
+        queue.add(r);
+        if (!scheduled) {
+            scheduled = true;
+            getHandler().post(DRAIN);
+        }
+    }
+
+    /**
+     * Whether callbacks can run directly in the current thread.
+     */
+    public static boolean isCallbackThread() {
+        return Shell.Config.getCallbackExecutor() == null && ShellUtils.onMainThread();
+    }
+
     public static void run(Runnable r) {
-        if (ShellUtils.onMainThread()) {
+        Executor executor = Shell.Config.getCallbackExecutor();
+        if (executor != null) {
+            executor.execute(r);
+        } else if (ShellUtils.onMainThread()) {
             r.run();
         } else {
-            handler.post(r);
+            post(r);
         }
     }
-    public static void runWithLock(Object lock, Runnable r) {
-        if (ShellUtils.onMainThread()) {
-            synchronized (lock) { r.run(); }
-        } else {
-            handler.post(() -> { synchronized (lock) { r.run(); } });
+    public static void runDelayed(Runnable r, long delay) {
+        if (Shell.Config.getCallbackExecutor() == null) {
+            getHandler().postDelayed(r, delay);
+            return;
+        }
+        synchronized (UiThreadHandler.class) {
+            if (timer == null) {
+                timer = new ScheduledThreadPoolExecutor(1);
+                timer.setKeepAliveTime(10, TimeUnit.SECONDS);
+                timer.allowCoreThreadTimeOut(true);
+            }
         }
+        timer.schedule(() -> run(r), delay, TimeUnit.MILLISECONDS);
     }
     public static void runAndWait(Runnable r) {
         if (ShellUtils.onMainThread()) {
             r.run();
         } else {
             WaitRunnable wr = new WaitRunnable(r);
-            handler.post(wr);
+            post(wr);
             wr.waitUntilDone();
         }
     }
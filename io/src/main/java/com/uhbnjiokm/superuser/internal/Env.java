@@ -19,43 +19,80 @@ package com.uhbnjiokm.superuser.internal;
 import com.uhbnjiokm.superuser.Shell;
 import com.uhbnjiokm.superuser.ShellUtils;
 
+import java.lang.ref.WeakReference;
+
 public class Env {
-    private static int shellHash;
-    private static Boolean blockdev;
-    private static Boolean stat;
-    private static Boolean wc;
 
-    private static Shell checkShell() {
+    // Every probe prints 1 or 0, the order matches the fields of Capabilities
+    private static final String PROBE =
+            "__C(){ command -v $1 >/dev/null 2>&1 && printf 1 || printf 0; }\n" +
+            "__C stat;__C wc;__C blockdev;__C sha256sum;__C gzip;__C inotifyd\n" +
+            "dd if=/dev/zero of=/dev/null bs=4 count=2 skip=1 iflag=skip_bytes,count_bytes " +
+            ">/dev/null 2>&1 && printf 1 || printf 0\n" +
+            "dd if=/dev/zero of=/dev/null bs=1 count=1 seek=1 oflag=seek_bytes " +
+            ">/dev/null 2>&1 && printf 1 || printf 0\n" +
+            "find / -maxdepth 0 -printf '' >/dev/null 2>&1 && printf 1 || printf 0\n" +
+            "echo;unset -f __C";
+
+    private static WeakReference<Shell> shellRef = new WeakReference<>(null);
+    private static Capabilities caps;
+
+    /**
+     * Tools and tool features available in a specific shell.
+     */
+    public static final class Capabilities {
+        public final boolean stat;
+        public final boolean wc;
+        public final boolean blockdev;
+        public final boolean sha256sum;
+        public final boolean gzip;
+        public final boolean inotifyd;
+        /** dd supports iflag=skip_bytes,count_bytes */
+        public final boolean ddSkipBytes;
+        /** dd supports oflag=seek_bytes */
+        public final boolean ddSeekBytes;
+        /** find supports -printf */
+        public final boolean findPrintf;
+
+        Capabilities(String probe) {
+            stat = has(probe, 0);
+            wc = has(probe, 1);
+            blockdev = has(probe, 2);
+            sha256sum = has(probe, 3);
+            gzip = has(probe, 4);
+            inotifyd = has(probe, 5);
+            ddSkipBytes = has(probe, 6);
+            ddSeekBytes = has(probe, 7);
+            findPrintf = has(probe, 8);
+        }
+
+        private static boolean has(String probe, int i) {
+            return i < probe.length() && probe.charAt(i) == '1';
+        }
+    }
+
+    /**
+     * Get the capabilities of the global shell, probed in a single round-trip once per shell.
+     */
+    public static synchronized Capabilities get() {
         Shell shell = Shell.getShell();
-        int code = shell.hashCode();
-        if (code != shellHash) {
-            blockdev = null;
-            stat = null;
-            wc = null;
-            shellHash = code;
+        if (caps == null || shellRef.get() != shell) {
+            caps = new Capabilities(ShellUtils.fastCmd(shell, PROBE));
+            shellRef = new WeakReference<>(shell);
         }
-        return shell;
+        return caps;
     }
 
     public static boolean blockdev() {
-        Shell shell = checkShell();
-        if (blockdev == null)
-            blockdev = ShellUtils.fastCmdResult(shell, "command -v blockdev");
-        return blockdev;
+        return get().blockdev;
     }
 
     public static boolean stat() {
-        Shell shell = checkShell();
-        if (stat == null)
-            stat = ShellUtils.fastCmdResult(shell, "command -v stat");
-        return stat;
+        return get().stat;
     }
 
     public static boolean wc() {
-        Shell shell = checkShell();
-        if (wc == null)
-            wc = ShellUtils.fastCmdResult(shell, "command -v wc");
-        return wc;
+        return get().wc;
     }
 
 }
@@ -34,6 +34,8 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
 
     private static final String TAG = "SHELLIO";
     private static final byte[] JUNK = new byte[1];
+    // Transfers at least this large are scheduled as bulk work
+    private static final int BULK_SIZE = 1024 * 1024;
     private static final FileNotFoundException FNF =
             new FileNotFoundException("No such file or directory");
     private static final UnsupportedOperationException UOE =
@@ -69,6 +71,10 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
         }
     }
 
+    private static int priority(long len) {
+        return len >= BULK_SIZE ? Shell.PRIORITY_BULK : Shell.PRIORITY_NORMAL;
+    }
+
     static ShellIO get(SuFile file, String mode) throws FileNotFoundException {
         if (file.isBlock())
             return new ShellBlockIO(file, mode);
@@ -113,7 +119,8 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
             in.flush();
             // Wait till the operation is done
             out.read(JUNK);
-        });
+        }, priority(len));
+        MetricsImpl.INSTANCE.ioWrite(len);
         fileOff += len;
     }
 
@@ -132,7 +139,8 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
             in.flush();
             // Wait till the operation is done
             out.read(JUNK);
-        });
+        }, priority(len));
+        MetricsImpl.INSTANCE.ioWrite(len);
         fileOff += len;
     }
 
@@ -155,6 +163,9 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
         if (gcd >= 512) {
             // Aligned, directly process it
             len = read(b, off, len, fileOff, gcd);
+        } else if (Env.get().ddSkipBytes) {
+            // dd can address bytes directly, no need to align
+            len = read(b, off, len, fileOff, 0);
         } else {
             /* Unaligned reading is too slow, try reading with 512-byte aligned
             * and copy those in interest (still faster than unaligned reading) */
@@ -184,17 +195,28 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
         int i;
     }
 
+    /**
+     * Read a range of the file with dd.
+     * @param bs the block size to address the file, or 0 to address bytes directly.
+     */
     int read(byte[] b, int _off, int _len, long fileOff, long bs) throws IOException {
-        /* assert fileOff % bs == 0 && _len % bs == 0 */
+        /* assert bs == 0 || (fileOff % bs == 0 && _len % bs == 0) */
         if (eof)
             return -1;
         Int count = new Int();
         Shell.getShell().execTask((in, out, err) -> {
             int off = _off;
             int len = _len;
-            String cmd = String.format(Locale.ROOT,
-                    "dd if='%s' ibs=%d skip=%d count=%d obs=%d 2>/dev/null; echo >&2",
-                    file.getAbsolutePath(), bs, fileOff / bs, len / bs, len);
+            String cmd;
+            if (bs == 0) {
+                cmd = String.format(Locale.ROOT,
+                        "dd if='%s' bs=%d iflag=skip_bytes,count_bytes skip=%d count=%d 2>/dev/null; echo >&2",
+                        file.getAbsolutePath(), Math.min(len, BULK_SIZE), fileOff, len);
+            } else {
+                cmd = String.format(Locale.ROOT,
+                        "dd if='%s' ibs=%d skip=%d count=%d obs=%d 2>/dev/null; echo >&2",
+                        file.getAbsolutePath(), bs, fileOff / bs, len / bs, len);
+            }
             InternalUtils.log(TAG, cmd);
             in.write(cmd.getBytes("UTF-8"));
             in.write('\n');
@@ -209,7 +231,8 @@ class ShellIO extends SuRandomAccessFile implements DataInputImpl, DataOutputImp
             }
             // Wait till the operation is done
             err.read(JUNK);
-        });
+        }, priority(_len));
+        MetricsImpl.INSTANCE.ioRead(count.i);
         if (count.i != _len)
             eof = true;
         return count.i;
@@ -56,8 +56,33 @@ import java.util.Locale;
  * shell does not have root access, or else returns a {@link SuFile} instance.
  */
 public class SuFile extends File {
-    
-    private String[] CMDs;
+
+    // Commands are prepared once and shared by all instances, {0} is the path of the file
+    private static final Shell.PreparedCommand CAN_EXECUTE = Shell.prepare("[ -x {0} ]");
+    private static final Shell.PreparedCommand CAN_READ = Shell.prepare("[ -r {0} ]");
+    private static final Shell.PreparedCommand CAN_WRITE = Shell.prepare("[ -w {0} ]");
+    private static final Shell.PreparedCommand CREATE = Shell.prepare("[ ! -e {0} ] && touch {0}");
+    private static final Shell.PreparedCommand DELETE = Shell.prepare("rm -f {0} || rmdir -f {0}");
+    private static final Shell.PreparedCommand DELETE_RECURSIVE = Shell.prepare("rm -rf {0}");
+    private static final Shell.PreparedCommand CLEAR = Shell.prepare("echo -n > {0}");
+    private static final Shell.PreparedCommand EXISTS = Shell.prepare("[ -e {0} ]");
+    private static final Shell.PreparedCommand READLINK = Shell.prepare("readlink -f {0}");
+    private static final Shell.PreparedCommand STAT_FS = Shell.prepare("stat -fc {1} {0}");
+    private static final Shell.PreparedCommand IS_DIRECTORY = Shell.prepare("[ -d {0} ]");
+    private static final Shell.PreparedCommand IS_FILE = Shell.prepare("[ -f {0} ]");
+    private static final Shell.PreparedCommand IS_BLOCK = Shell.prepare("[ -b {0} ]");
+    private static final Shell.PreparedCommand IS_CHARACTER = Shell.prepare("[ -c {0} ]");
+    private static final Shell.PreparedCommand IS_SYMLINK = Shell.prepare("[ -L {0} ]");
+    private static final Shell.PreparedCommand MTIME = Shell.prepare("stat -c '%Y' {0}");
+    private static final Shell.PreparedCommand SIZE = Shell.prepare("stat -c '%s' {0}");
+    private static final Shell.PreparedCommand SIZE_WC = Shell.prepare("[ -f {0} ] && wc -c < {0} || echo 0");
+    private static final Shell.PreparedCommand MKDIR = Shell.prepare("mkdir {0}");
+    private static final Shell.PreparedCommand MKDIRS = Shell.prepare("mkdir -p {0}");
+    private static final Shell.PreparedCommand RENAME = Shell.prepare("mv -f {0} {1}");
+    private static final Shell.PreparedCommand PERMS = Shell.prepare("stat -c '%a' {0}");
+    private static final Shell.PreparedCommand CHMOD = Shell.prepare("chmod {1} {0}");
+    private static final Shell.PreparedCommand TOUCH = Shell.prepare("[ -e {0} ] && touch -t {1} {0}");
+    private static final Shell.PreparedCommand LIST = Shell.prepare("ls -a {0}");
 
     public static File open(String pathname) {
         return Shell.rootAccess() ? new SuFile(pathname) : new File(pathname);
@@ -77,8 +102,6 @@ public class SuFile extends File {
 
     SuFile(@NonNull File file) {
         super(file.getAbsolutePath());
-        CMDs = new String[2];
-        CMDs[0] = "__F_='" + file.getAbsolutePath() +  "'";
     }
 
     public SuFile(String pathname) {
@@ -97,32 +120,55 @@ public class SuFile extends File {
         this(new File(uri));
     }
 
-    private String[] setCmd(String c) {
-        CMDs[1] = c;
-        return CMDs;
+    private Shell.Job job(Shell.PreparedCommand c, String arg) {
+        Shell.Job job = Shell.getShell().newJob();
+        return arg == null ? job.add(c, getAbsolutePath()) : job.add(c, getAbsolutePath(), arg);
+    }
+
+    private static String lastLine(Shell.Job job) {
+        List<String> out = job.to(new ArrayList<>(), null).exec().getOut();
+        return ShellUtils.isValidOutput(out) ? out.get(out.size() - 1) : "";
+    }
+
+    private String cmd(Shell.PreparedCommand c) {
+        return lastLine(job(c, null));
+    }
+
+    private boolean cmdBool(Shell.PreparedCommand c) {
+        return cmdBool(c, null);
+    }
+
+    private boolean cmdBool(Shell.PreparedCommand c, String arg) {
+        return job(c, arg).exec().isSuccess();
+    }
+
+    // Read-only queries share the execution with identical queries waiting for the shell
+
+    private String queryLine(Shell.PreparedCommand c) {
+        return queryLine(c, null);
     }
 
-    private String cmd(String c) {
-        return ShellUtils.fastCmd(setCmd(c));
+    private String queryLine(Shell.PreparedCommand c, String arg) {
+        return lastLine(job(c, arg).idempotent());
     }
 
-    private boolean cmdBool(String c) {
-        return ShellUtils.fastCmdResult(setCmd(c));
+    private boolean queryBool(Shell.PreparedCommand c) {
+        return job(c, null).idempotent().exec().isSuccess();
     }
 
     @Override
     public boolean canExecute() {
-        return cmdBool("[ -x \"$__F_\" ]");
+        return queryBool(CAN_EXECUTE);
     }
 
     @Override
     public boolean canRead() {
-        return cmdBool("[ -r \"$__F_\" ]");
+        return queryBool(CAN_READ);
     }
 
     @Override
     public boolean canWrite() {
-        return cmdBool("[ -w \"$__F_\" ]");
+        return queryBool(CAN_WRITE);
     }
 
     /**
@@ -134,7 +180,7 @@ public class SuFile extends File {
      */
     @Override
     public boolean createNewFile() {
-        return cmdBool("[ ! -e \"$__F_\" ] && touch \"$__F_\"");
+        return cmdBool(CREATE);
     }
 
     /**
@@ -147,7 +193,7 @@ public class SuFile extends File {
      */
     @Override
     public boolean delete() {
-        return cmdBool("rm -f \"$__F_\" || rmdir -f \"$__F_\"");
+        return cmdBool(DELETE);
     }
 
     /**
@@ -159,7 +205,7 @@ public class SuFile extends File {
      * @see File#delete()
      */
     public boolean deleteRecursive() {
-        return cmdBool("rm -rf \"$__F_\"");
+        return cmdBool(DELETE_RECURSIVE);
     }
 
     /**
@@ -168,7 +214,7 @@ public class SuFile extends File {
      * @return true if operation succeed
      */
     public boolean clear() {
-        return cmdBool("echo -n > \"$__F_\"");
+        return cmdBool(CLEAR);
     }
 
     /**
@@ -181,7 +227,7 @@ public class SuFile extends File {
 
     @Override
     public boolean exists() {
-        return cmdBool("[ -e \"$__F_\" ]");
+        return queryBool(EXISTS);
     }
 
     @NonNull
@@ -199,7 +245,7 @@ public class SuFile extends File {
     @NonNull
     @Override
     public String getCanonicalPath() {
-        String path = cmd("readlink -f \"$__F_\"");
+        String path = queryLine(READLINK);
         return path.isEmpty() ? getAbsolutePath() : path;
     }
 
@@ -224,7 +270,7 @@ public class SuFile extends File {
     private long statFS(String fmt) {
         if (!Env.stat())
             return Long.MAX_VALUE;
-        String[] res = cmd("stat -fc '%S " + fmt + "' \"$__F_\"").split(" ");
+        String[] res = queryLine(STAT_FS, "%S " + fmt).split(" ");
         if (res.length != 2)
             return Long.MAX_VALUE;
         try {
@@ -270,33 +316,33 @@ public class SuFile extends File {
 
     @Override
     public boolean isDirectory() {
-        return cmdBool("[ -d \"$__F_\" ]");
+        return queryBool(IS_DIRECTORY);
     }
 
     @Override
     public boolean isFile() {
-        return cmdBool("[ -f \"$__F_\" ]");
+        return queryBool(IS_FILE);
     }
 
     /**
      * @return true if the abstract pathname denotes a block device.
      */
     public boolean isBlock() {
-        return cmdBool("[ -b \"$__F_\" ]");
+        return queryBool(IS_BLOCK);
     }
 
     /**
      * @return true if the abstract pathname denotes a character device.
      */
     public boolean isCharacter() {
-        return cmdBool("[ -c \"$__F_\" ]");
+        return queryBool(IS_CHARACTER);
     }
 
     /**
      * @return true if the abstract pathname denotes a symbolic link file.
      */
     public boolean isSymlink() {
-        return cmdBool("[ -L \"$__F_\" ]");
+        return queryBool(IS_SYMLINK);
     }
 
     /**
@@ -311,7 +357,7 @@ public class SuFile extends File {
         try {
             if (!Env.stat())
                 return 0L;
-            return Long.parseLong(cmd("stat -c '%Y' \"$__F_\"")) * 1000;
+            return Long.parseLong(queryLine(MTIME)) * 1000;
         } catch (NumberFormatException e) {
             return 0L;
         }
@@ -327,9 +373,9 @@ public class SuFile extends File {
     public long length() {
         try {
             if (Env.stat()) {
-                return Long.parseLong(cmd("stat -c '%s' \"$__F_\""));
+                return Long.parseLong(queryLine(SIZE));
             } else if (Env.wc()) {
-                return Long.parseLong(cmd("[ -f \"$__F_\" ] && wc -c < \"$__F_\" || echo 0"));
+                return Long.parseLong(queryLine(SIZE_WC));
             } else {
                 return 0L;
             }
@@ -346,7 +392,7 @@ public class SuFile extends File {
      */
     @Override
     public boolean mkdir() {
-        return cmdBool("mkdir \"$__F_\"");
+        return cmdBool(MKDIR);
     }
 
     /**
@@ -358,7 +404,7 @@ public class SuFile extends File {
      */
     @Override
     public boolean mkdirs() {
-        return cmdBool("mkdir -p \"$__F_\"");
+        return cmdBool(MKDIRS);
     }
 
     /**
@@ -369,13 +415,13 @@ public class SuFile extends File {
      */
     @Override
     public boolean renameTo(File dest) {
-        return cmdBool("mv -f \"$__F_\" '" + dest.getAbsolutePath() + "'");
+        return cmdBool(RENAME, dest.getAbsolutePath());
     }
 
     private boolean setPerms(boolean set, boolean ownerOnly, int b) {
         if (!Env.stat())
             return false;
-        char[] perms = cmd("stat -c '%a' \"$__F_\"").toCharArray();
+        char[] perms = cmd(PERMS).toCharArray();
         for (int i = 0; i < perms.length; ++i) {
             int perm = perms[i] - '0';
             if (set && (!ownerOnly || i == 0))
@@ -384,7 +430,7 @@ public class SuFile extends File {
                 perm &= ~(b);
             perms[i] = (char) (perm + '0');
         }
-        return cmdBool("chmod " + new String(perms) + " \"$__F_\"");
+        return cmdBool(CHMOD, new String(perms));
     }
 
     /**
@@ -450,7 +496,7 @@ public class SuFile extends File {
     public boolean setLastModified(long time) {
         DateFormat df = new SimpleDateFormat("yyyyMMddHHmm", Locale.US);
         String date = df.format(new Date(time));
-        return cmdBool("[ -e \"$__F_\" ] && touch -t " + date + " \"$__F_\"");
+        return cmdBool(TOUCH, date);
     }
 
     @Override
@@ -463,7 +509,7 @@ public class SuFile extends File {
         if (!isDirectory())
             return null;
         FilenameFilter defFilter = (file, name) -> name.equals(".") || name.equals("..");
-        List<String> out = Shell.su(setCmd("ls -a \"$__F_\"")).to(new LinkedList<>(), null)
+        List<String> out = Shell.su().add(LIST, getAbsolutePath()).to(new LinkedList<>(), null)
                 .exec().getOut();
         String name;
         for (ListIterator<String> it = out.listIterator(); it.hasNext();) {